@@ -0,0 +1,133 @@
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import benchmarks.Workloads;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+//The operations benchmarks.ChainBenchmarks measures. JMH only runs benchmarks in a named package and those
+//cannot see the default-package classes, so it loads this class by name and calls through Workloads.
+public class ChainWorkloads implements Workloads {
+
+    private final Wallet signer;
+    private final Wallet other;
+    //Owns 1% of the outputs fillUtxos added last.
+    private Wallet owner;
+
+    public ChainWorkloads() {
+        Security.addProvider(new BouncyCastleProvider());
+        signer = new Wallet();
+        other = new Wallet();
+    }
+
+    @Override
+    public Supplier<?> sha256() {
+        String header = StringUtil.applySha256("previous") + System.currentTimeMillis() + 12345 + StringUtil.applySha256("merkle");
+        return () -> StringUtil.applySha256(header);
+    }
+
+    @Override
+    public Supplier<?> applyECDSASig() {
+        String payload = payload();
+        return () -> StringUtil.applyECDSASig(signer.privateKey, payload);
+    }
+
+    @Override
+    public Supplier<?> verifyECDSASig() {
+        String payload = payload();
+        byte[] signature = StringUtil.applyECDSASig(signer.privateKey, payload);
+        return () -> StringUtil.verifyECDSASig(signer.publicKey, payload, signature);
+    }
+
+    @Override
+    public Supplier<?> mineBlock(int difficulty) {
+        return () -> {
+            Block block = new Block(StringUtil.applySha256(Long.toString(System.nanoTime())));
+            block.mineBlock(Difficulty.ofLeadingZeros(difficulty));
+            return block.hash;
+        };
+    }
+
+    @Override
+    public Supplier<?> getMerkleRoot(int count) {
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Transaction transaction = new Transaction(signer.publicKey, other.publicKey, Amount.of(1), new ArrayList<>());
+            transaction.transactionId = StringUtil.applySha256("tx" + i);
+            transactions.add(transaction);
+        }
+        return () -> StringUtil.getMerkleRoot(transactions);
+    }
+
+    //Global UTXO set with size outputs spread over 100 owners.
+    @Override
+    public void fillUtxos(long size) {
+        Blockchain.UTXOs = new UTXOSet();
+        List<Wallet> owners = new ArrayList<>();
+        for (int i = 0; i < 100; i++) owners.add(new Wallet());
+        for (long i = 0; i < size; i++) {
+            Wallet next = owners.get((int) (i % owners.size()));
+            Blockchain.UTXOs.add(new TransactionOutput(next.publicKey, Amount.of(1), "bench" + i));
+        }
+        owner = owners.get(0);
+    }
+
+    @Override
+    public Supplier<?> getBalance() {
+        Wallet wallet = owner;
+        return wallet::getBalance;
+    }
+
+    @Override
+    public Supplier<?> balanceReport() {
+        return () -> BalanceReport.ofUtxos(Blockchain.UTXOs).getTotalBalance();
+    }
+
+    @Override
+    public Supplier<?> sendFunds() {
+        Wallet wallet = owner;
+        return () -> wallet.sendFunds(other.publicKey, Amount.of(5));
+    }
+
+    @Override
+    public Supplier<?> isChainValid(int length) {
+        buildChain(length);
+        return () -> Blockchain.isChainValid(true);
+    }
+
+    private String payload() {
+        return StringUtil.getStringFromKey(signer.publicKey) + StringUtil.getStringFromKey(other.publicKey) + "40.0";
+    }
+
+    //Genesis plus length - 1 blocks, each carrying one payment from walletA to walletB.
+    private static void buildChain(int length) {
+        Blockchain.blockchain = new ArrayList<>();
+        Blockchain.UTXOs = new UTXOSet();
+        Blockchain.tree = new BlockTree();
+        Blockchain.checkpoint = null;
+        Blockchain.genesisBits = Difficulty.ofLeadingZeros(1);
+        Blockchain.blockTimeMillis = 0;
+        Wallet coinbase = new Wallet();
+        Blockchain.walletA = new Wallet();
+        Blockchain.walletB = new Wallet();
+
+        Transaction genesisTransaction = new Transaction(coinbase.publicKey, Blockchain.walletA.publicKey, Amount.of(1_000_000), null);
+        genesisTransaction.generateSignature(coinbase.privateKey);
+        genesisTransaction.transactionId = "0";
+        genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.reciepient, genesisTransaction.value, genesisTransaction.transactionId));
+        Blockchain.genesisTransaction = genesisTransaction;
+        Blockchain.UTXOs.add(genesisTransaction.outputs.get(0));
+
+        Block genesis = new Block("0");
+        genesis.addTransaction(genesisTransaction);
+        Blockchain.addBlock(genesis);
+        for (int i = 1; i < length; i++) {
+            Block block = new Block(Blockchain.blockchain.get(i - 1).hash);
+            block.addTransaction(Blockchain.walletA.sendFunds(Blockchain.walletB.publicKey, Amount.of(1)));
+            Blockchain.addBlock(block);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+//Throughput of the hot paths. Build and run with JSON results so runs can be compared over time:
+//
+//  mvn -B -Pjmh package
+//  java -jar target/benchmarks.jar -rf json -rff bench-results.json [regex] [-p utxos=1000,10000]
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBenchmarks {
+
+    static Workloads workloads() {
+        try {
+            return (Workloads) Class.forName("ChainWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Crypto {
+        Supplier<?> sha256;
+        Supplier<?> applyECDSASig;
+        Supplier<?> verifyECDSASig;
+
+        @Setup
+        public void setup() {
+            Workloads workloads = workloads();
+            sha256 = workloads.sha256();
+            applyECDSASig = workloads.applyECDSASig();
+            verifyECDSASig = workloads.verifyECDSASig();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Mining {
+        @Param({"1", "2", "3", "4"})
+        public int difficulty;
+        Supplier<?> mineBlock;
+
+        @Setup
+        public void setup() {
+            mineBlock = workloads().mineBlock(difficulty);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Merkle {
+        @Param({"1", "10", "100", "1000", "10000"})
+        public int transactions;
+        Supplier<?> getMerkleRoot;
+
+        @Setup
+        public void setup() {
+            getMerkleRoot = workloads().getMerkleRoot(transactions);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Utxos {
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        public long utxos;
+        Supplier<?> getBalance;
+        Supplier<?> balanceReport;
+        Supplier<?> sendFunds;
+
+        @Setup
+        public void setup() {
+            Workloads workloads = workloads();
+            workloads.fillUtxos(utxos);
+            getBalance = workloads.getBalance();
+            balanceReport = workloads.balanceReport();
+            sendFunds = workloads.sendFunds();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Chain {
+        @Param({"10", "100", "1000"})
+        public int blocks;
+        Supplier<?> isChainValid;
+
+        @Setup
+        public void setup() {
+            isChainValid = workloads().isChainValid(blocks);
+        }
+    }
+
+    @Benchmark
+    public Object sha256(Crypto state) {
+        return state.sha256.get();
+    }
+
+    @Benchmark
+    public Object applyECDSASig(Crypto state) {
+        return state.applyECDSASig.get();
+    }
+
+    @Benchmark
+    public Object verifyECDSASig(Crypto state) {
+        return state.verifyECDSASig.get();
+    }
+
+    @Benchmark
+    public Object mineBlock(Mining state) {
+        return state.mineBlock.get();
+    }
+
+    @Benchmark
+    public Object getMerkleRoot(Merkle state) {
+        return state.getMerkleRoot.get();
+    }
+
+    @Benchmark
+    public Object getBalance(Utxos state) {
+        return state.getBalance.get();
+    }
+
+    @Benchmark
+    public Object balanceReport(Utxos state) {
+        return state.balanceReport.get();
+    }
+
+    @Benchmark
+    public Object sendFunds(Utxos state) {
+        return state.sendFunds.get();
+    }
+
+    @Benchmark
+    public Object isChainValid(Chain state) {
+        return state.isChainValid.get();
+    }
+
+}
@@ -0,0 +1,30 @@
+package benchmarks;
+
+import java.util.function.Supplier;
+
+//Sets up one benchmarked operation and returns it, ready to be called repeatedly.
+public interface Workloads {
+
+    Supplier<?> sha256();
+
+    Supplier<?> applyECDSASig();
+
+    Supplier<?> verifyECDSASig();
+
+    Supplier<?> mineBlock(int difficulty);
+
+    Supplier<?> getMerkleRoot(int transactions);
+
+    //Replaces the global UTXO set; getBalance, balanceReport and sendFunds work on the last one filled.
+    void fillUtxos(long size);
+
+    Supplier<?> getBalance();
+
+    Supplier<?> balanceReport();
+
+    Supplier<?> sendFunds();
+
+    //Builds a chain of that many blocks; the operation revalidates all of it.
+    Supplier<?> isChainValid(int blocks);
+
+}
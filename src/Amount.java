@@ -0,0 +1,27 @@
+import java.math.BigDecimal;
+
+//Coin and token amounts are longs counting 10^-DECIMALS units, so sums and comparisons are exact.
+public final class Amount {
+
+    public static final int DECIMALS = 8;
+    public static final long UNIT = 100_000_000L;
+
+    private Amount() {
+    }
+
+    public static long of(long whole) {
+        return Math.multiplyExact(whole, UNIT);
+    }
+
+    //Exact decimal text such as "0.1"; more than DECIMALS places is an error.
+    public static long parse(String text) {
+        return new BigDecimal(text).movePointRight(DECIMALS).longValueExact();
+    }
+
+    public static String format(long units) {
+        BigDecimal value = BigDecimal.valueOf(units, DECIMALS).stripTrailingZeros();
+        if (value.scale() < 1) value = value.setScale(1);
+        return value.toPlainString();
+    }
+
+}
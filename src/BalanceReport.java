@@ -0,0 +1,132 @@
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+//Balance, unspent output count and stake for every known key, built in one parallel pass and
+//indexed by KeyRegistry id. Neither pass takes a global lock, so blocks keep being applied meanwhile
+//and the report reflects some point during the pass.
+public class BalanceReport {
+
+    public static final class Entry {
+        public final KeyRegistry.KeyId key;
+        public final long balance;
+        public final int outputs;
+        public final long stake;
+
+        Entry(KeyRegistry.KeyId key, long balance, int outputs, long stake) {
+            this.key = key;
+            this.balance = balance;
+            this.outputs = outputs;
+            this.stake = stake;
+        }
+    }
+
+    private static final long PARALLEL_THRESHOLD = 1024;
+
+    private final long[] balances;
+    private final int[] outputs;
+    private final long[] stakes;
+
+    private BalanceReport(long[] balances, int[] outputs) {
+        this.balances = balances;
+        this.outputs = outputs;
+        this.stakes = Blockchain.validators.stakesById(balances.length);
+    }
+
+    private BalanceReport(Totals totals) {
+        this(Arrays.copyOf(totals.balances, Math.max(totals.balances.length, KeyRegistry.size())),
+                Arrays.copyOf(totals.outputs, Math.max(totals.outputs.length, KeyRegistry.size())));
+    }
+
+    //Reads the per-owner running totals, one fork-join task per batch of owners.
+    //Keys first seen after the pass started are left out.
+    public static BalanceReport ofUtxos(UTXOSet utxos) {
+        int size = KeyRegistry.size();
+        long[] balances = new long[size];
+        int[] outputs = new int[size];
+        utxos.forEachOwner(PARALLEL_THRESHOLD, (key, balance, count) -> {
+            if (key.id >= size) return;
+            balances[key.id] = balance;
+            outputs[key.id] = count;
+        });
+        return new BalanceReport(balances, outputs);
+    }
+
+    //Net change per key over the blocks in [fromHeight, chain.size()): outputs created minus outputs spent.
+    //From height 0 this rebuilds the balances without the UTXO set. chain must not change during the
+    //pass, e.g. BlockStore.blocks() or a copy of the in-memory chain.
+    public static BalanceReport ofBlocks(List<Block> chain, int fromHeight) {
+        return new BalanceReport(IntStream.range(fromHeight, chain.size()).parallel()
+                .mapToObj(chain::get)
+                .collect(Totals::new, Totals::add, Totals::merge));
+    }
+
+    //Keys with any balance, outputs or stake, in id order; entries are created as the stream is consumed.
+    public Stream<Entry> stream() {
+        return IntStream.range(0, balances.length)
+                .filter(id -> balances[id] != 0 || outputs[id] != 0 || stakes[id] != 0)
+                .mapToObj(this::entry);
+    }
+
+    public Entry get(PublicKey key) {
+        KeyRegistry.KeyId id = KeyRegistry.of(key);
+        return id.id < balances.length ? entry(id.id) : new Entry(id, 0, 0, 0);
+    }
+
+    public long getTotalBalance() {
+        long total = 0;
+        for (long balance : balances) total += balance;
+        return total;
+    }
+
+    private Entry entry(int id) {
+        return new Entry(KeyRegistry.get(id), balances[id], outputs[id], stakes[id]);
+    }
+
+    //Per-task accumulator; merged pairwise as the fork-join pass completes.
+    private static final class Totals {
+        long[] balances = new long[KeyRegistry.size()];
+        int[] outputs = new int[balances.length];
+
+        void add(TransactionOutput output) {
+            credit(KeyRegistry.of(output.reciepient).id, output.value, 1);
+        }
+
+        void add(Block block) {
+            for (Transaction transaction : block.transactions) {
+                if (transaction.isContractCall()) continue;
+                for (TransactionOutput output : transaction.outputs) {
+                    add(output);
+                }
+                if (transaction.inputs == null) continue;
+                for (TransactionInput input : transaction.inputs) {
+                    if (input.UTXO != null) credit(KeyRegistry.of(input.UTXO.reciepient).id, -input.UTXO.value, -1);
+                }
+            }
+        }
+
+        void merge(Totals other) {
+            if (other.balances.length > balances.length) {
+                balances = Arrays.copyOf(balances, other.balances.length);
+                outputs = Arrays.copyOf(outputs, other.outputs.length);
+            }
+            for (int i = 0; i < other.balances.length; i++) {
+                balances[i] += other.balances[i];
+                outputs[i] += other.outputs[i];
+            }
+        }
+
+        private void credit(int id, long value, int count) {
+            if (id >= balances.length) {
+                int size = Math.max(id + 1, balances.length * 2);
+                balances = Arrays.copyOf(balances, size);
+                outputs = Arrays.copyOf(outputs, size);
+            }
+            balances[id] += value;
+            outputs[id] += count;
+        }
+    }
+
+}
@@ -1,6 +1,9 @@
 import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Block {
     
@@ -8,8 +11,15 @@ public class Block {
     public String previousHash;
     public String merkleRoot;
     private long timeStamp;
+    //Compact proof-of-work target, see Difficulty.
+    private int bits;
     public ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+    //Leaves under merkleRoot; part of the header so a proof is checked against the count it commits to.
+    private int transactionCount;
     private int nonce;
+    private MerkleTree merkleTree;
+    //Contract slots as they were before this block's calls wrote them, while it is being built here.
+    final Map<SmartContract,Map<Long,Long>> replacedState = new HashMap<>();
 
     public PublicKey validatorPublicKey;
 
@@ -20,46 +30,132 @@ public class Block {
         this.hash = calculateHash();
     }
 
+    //Restores a block that was mined earlier, e.g. when it is read back from a BlockStore.
+    public Block(String hash, String previousHash, String merkleRoot, int transactionCount, long timeStamp, int bits, int nonce) {
+        this.hash = hash;
+        this.previousHash = previousHash;
+        this.merkleRoot = merkleRoot;
+        this.transactionCount = transactionCount;
+        this.timeStamp = timeStamp;
+        this.bits = bits;
+        this.nonce = nonce;
+    }
+
     public String calculateHash(){
+        return calculateHash(nonce);
+    }
+
+    public String calculateHash(int nonce){
         String calculatedhash = StringUtil.applySha256(
-                previousHash + Long.toString(timeStamp) + Integer.toString(nonce) + merkleRoot);
+                headerPrefix() + Integer.toString(nonce) + merkleRoot);
         return calculatedhash;
     }
 
-    public void mineBlock(int difficulty) {
-        String target = new String (new char[difficulty]).replace('\0', '0');
-        while (!hash.substring(0, difficulty).equals(target)) {
-            nonce ++;
-            hash = calculateHash();
-        }
-        System.out.println("Block mined! : " + hash);
+    //Hasher over the header fields that stay fixed while the nonce changes.
+    public HeaderHasher headerHasher() {
+        return new HeaderHasher(headerPrefix(), String.valueOf(merkleRoot));
+    }
+
+    private String headerPrefix() {
+        return previousHash + Long.toString(timeStamp) + String.format("%08x%08x", bits, transactionCount);
+    }
+
+    //Moves the timestamp up to minimum if it is earlier; only before the block is mined.
+    public void raiseTimeStamp(long minimum) {
+        timeStamp = Math.max(timeStamp, minimum);
+    }
+
+    //Sets the target to bits and searches for a nonce that meets it.
+    public void mineBlock(int bits) {
+        this.bits = bits;
+        nonce = Blockchain.miner.findNonce(this, Difficulty.toBytes(bits));
+        hash = calculateHash();
+        Log.info(() -> "Block mined! : " + hash + " (" + (long) Blockchain.miner.getLastHashRate() + " H/s)");
     }
 
     public boolean addTransaction(Transaction transaction) {
         //process transaction and check if valid, unless block is genesis block then ignore.
         if(transaction == null) return false;
         if((!"0".equals(previousHash))) {
-            if((transaction.processTransaction() != true)) {
-                System.out.println("Transaction failed to process. Discarded.");
+            boolean processed = transaction.isContractCall()
+                    ? Blockchain.runtime.execute(transaction, replacedState)
+                    : transaction.processTransaction();
+            if(!processed) {
+                Log.info("Transaction failed to process. Discarded.");
                 return false;
             }
         }
 
-        transactions.add(transaction);
-        System.out.println("Transaction Successfully added to Block");
+        append(transaction);
         return true;
     }
 
+    //Same outcome as addTransaction on each in order; the batch is processed by Blockchain.executor.
+    public int addTransactions(List<Transaction> batch) {
+        if ("0".equals(previousHash)) {
+            int added = 0;
+            for (Transaction transaction : batch) {
+                if (addTransaction(transaction)) added++;
+            }
+            return added;
+        }
+
+        boolean[] accepted = Blockchain.executor.execute(batch, Blockchain.UTXOs, replacedState);
+        int added = 0;
+        for (int i = 0; i < accepted.length; i++) {
+            if (!accepted[i]) {
+                Log.info("Transaction failed to process. Discarded.");
+                continue;
+            }
+            append(batch.get(i));
+            added++;
+        }
+        return added;
+    }
+
+    private void append(Transaction transaction) {
+        MerkleTree tree = getMerkleTree();
+        transactions.add(transaction);
+        tree.append(transaction.transactionId);
+        merkleRoot = tree.getRootHex();
+        transactionCount = transactions.size();
+        Log.info("Transaction Successfully added to Block");
+    }
+
+    //Rebuilt when transactions were added directly to the list, e.g. by BlockCodec.
+    public MerkleTree getMerkleTree() {
+        if (merkleTree == null || merkleTree.size() != transactions.size()) {
+            merkleTree = MerkleTree.build(transactions);
+        }
+        return merkleTree;
+    }
+
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public int getNonce() {
+        return nonce;
+    }
+
     public void mineBlockPos(Wallet validator) {
         this.validatorPublicKey = validator.publicKey;
         this.hash = calculateHash();
-        System.out.println("Block validated by: " + StringUtil.getStringFromKey(validator.publicKey));
+        Log.info(() -> "Block validated by: " + StringUtil.getStringFromKey(validator.publicKey));
     }
 
     public void mineBlockDpos(Delegate delegate) {
         this.validatorPublicKey = delegate.wallet.publicKey;
         this.hash = calculateHash();
-        System.out.println("Block created by delegate: " + delegate.wallet.publicKey);
+        Log.info(() -> "Block created by delegate: " + delegate.wallet.publicKey);
     }
 
 }
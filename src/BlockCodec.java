@@ -0,0 +1,237 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.util.ArrayList;
+
+//Compact binary form of a block and its transactions.
+//Hex ids are stored as their 32 raw bytes and keys as their X.509 encoding.
+public class BlockCodec {
+
+    public static final byte VERSION = 6;
+
+    //Largest encoded block anything reading blocks off a stream or the wire accepts.
+    public static final int MAX_BLOCK_BYTES = 64 << 20;
+
+    //Smallest encodings, used to bound counts read off the wire before allocating for them:
+    //version, three null ids, header transaction count, timestamp, bits, nonce, null key and transaction count.
+    public static final int MIN_BLOCK_BYTES = 1 + 3 + 4 + 8 + 4 + 4 + 4 + 4;
+    private static final int MIN_TRANSACTION_BYTES = 1 + 4 + 4 + 8 + 4 + 1 + 1 + 4 + 4;
+    private static final int MIN_INPUT_BYTES = 1 + 1;
+    private static final int MIN_OUTPUT_BYTES = 1 + 4 + 8 + 1;
+
+    private static final byte NULL = 0;
+    private static final byte HEX32 = 1;
+    private static final byte TEXT = 2;
+
+    public static byte[] encode(Block block) {
+        return encode(block, true);
+    }
+
+    //Header fields only; decodes to a Block with no transactions.
+    public static byte[] encodeHeader(Block block) {
+        return encode(block, false);
+    }
+
+    private static byte[] encode(Block block, boolean withTransactions) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + block.transactions.size() * 512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            writeId(out, block.hash);
+            writeId(out, block.previousHash);
+            writeId(out, block.merkleRoot);
+            out.writeInt(block.getTransactionCount());
+            out.writeLong(block.getTimeStamp());
+            out.writeInt(block.getBits());
+            out.writeInt(block.getNonce());
+            writeKey(out, block.validatorPublicKey);
+            if (withTransactions) {
+                out.writeInt(block.transactions.size());
+                for (Transaction transaction : block.transactions) {
+                    writeTransaction(out, transaction);
+                }
+            } else {
+                out.writeInt(0);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Reads one block starting at the buffer's position and leaves the position after it.
+    public static Block decode(ByteBuffer in) {
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported block encoding version: " + version);
+        }
+        String hash = readId(in);
+        String previousHash = readId(in);
+        String merkleRoot = readId(in);
+        int transactionCount = in.getInt();
+        long timeStamp = in.getLong();
+        int bits = in.getInt();
+        int nonce = in.getInt();
+        Block block = new Block(hash, previousHash, merkleRoot, transactionCount, timeStamp, bits, nonce);
+        block.validatorPublicKey = readKey(in);
+        int count = readCount(in, MIN_TRANSACTION_BYTES);
+        block.transactions.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            block.transactions.add(readTransaction(in));
+        }
+        return block;
+    }
+
+    static void writeTransaction(DataOutputStream out, Transaction transaction) throws IOException {
+        writeId(out, transaction.transactionId);
+        writeKey(out, transaction.sender);
+        writeKey(out, transaction.reciepient);
+        out.writeLong(transaction.value);
+        writeBytes(out, transaction.signature);
+        writeId(out, transaction.getContractAddress());
+        writeId(out, transaction.getContractCallData());
+        if (transaction.isContractCall()) out.writeLong(transaction.getContractNonce());
+        if (transaction.inputs == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(transaction.inputs.size());
+            for (TransactionInput input : transaction.inputs) {
+                writeId(out, input.transactionOutputId);
+                //The spent output travels with the input so validation does not need the UTXO set.
+                out.writeBoolean(input.UTXO != null);
+                if (input.UTXO != null) writeOutput(out, input.UTXO);
+            }
+        }
+        out.writeInt(transaction.outputs.size());
+        for (TransactionOutput output : transaction.outputs) {
+            writeOutput(out, output);
+        }
+    }
+
+    static Transaction readTransaction(ByteBuffer in) {
+        String transactionId = readId(in);
+        PublicKey sender = readKey(in);
+        PublicKey reciepient = readKey(in);
+        long value = in.getLong();
+        byte[] signature = readBytes(in);
+        String contractAddress = readId(in);
+        String contractCallData = readId(in);
+        long contractNonce = contractAddress != null ? in.getLong() : 0;
+
+        ArrayList<TransactionInput> inputs = null;
+        int inputCount = in.getInt();
+        if (inputCount >= 0) {
+            checkCount(in, inputCount, MIN_INPUT_BYTES);
+            inputs = new ArrayList<TransactionInput>(inputCount);
+            for (int i = 0; i < inputCount; i++) {
+                TransactionInput input = new TransactionInput(readId(in));
+                if (in.get() != 0) input.UTXO = readOutput(in);
+                inputs.add(input);
+            }
+        }
+
+        Transaction transaction = new Transaction(sender, reciepient, value, inputs, contractAddress, contractCallData, contractNonce);
+        transaction.transactionId = transactionId;
+        transaction.signature = signature;
+        int outputCount = readCount(in, MIN_OUTPUT_BYTES);
+        for (int i = 0; i < outputCount; i++) {
+            transaction.outputs.add(readOutput(in));
+        }
+        return transaction;
+    }
+
+    static void writeOutput(DataOutputStream out, TransactionOutput output) throws IOException {
+        writeId(out, output.id);
+        writeKey(out, output.reciepient);
+        out.writeLong(output.value);
+        writeId(out, output.parentTransactionId);
+    }
+
+    static TransactionOutput readOutput(ByteBuffer in) {
+        String id = readId(in);
+        PublicKey reciepient = readKey(in);
+        long value = in.getLong();
+        String parentTransactionId = readId(in);
+        return new TransactionOutput(id, reciepient, value, parentTransactionId);
+    }
+
+    static void writeId(DataOutputStream out, String id) throws IOException {
+        if (id == null) {
+            out.writeByte(NULL);
+        } else if (StringUtil.isHash(id)) {
+            out.writeByte(HEX32);
+            for (int i = 0; i < 64; i += 2) {
+                out.writeByte(Character.digit(id.charAt(i), 16) << 4 | Character.digit(id.charAt(i + 1), 16));
+            }
+        } else {
+            out.writeByte(TEXT);
+            writeBytes(out, id.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static String readId(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case HEX32:
+                byte[] raw = new byte[32];
+                in.get(raw);
+                return StringUtil.toHex(raw);
+            case TEXT:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            default:
+                throw new IllegalArgumentException("Unknown id tag: " + tag);
+        }
+    }
+
+    static void writeKey(DataOutputStream out, PublicKey key) throws IOException {
+        if (key == null) {
+            writeBytes(out, null);
+            return;
+        }
+        writeBytes(out, KeyRegistry.of(key).encoded);
+    }
+
+    static PublicKey readKey(ByteBuffer in) {
+        byte[] encoded = readBytes(in);
+        if (encoded == null) return null;
+        return KeyRegistry.decode(encoded);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        checkCount(in, length, 1);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    //Count of items of at least minBytes each that follow; throws if the rest of the buffer can't hold them.
+    public static int readCount(ByteBuffer in, int minBytes) {
+        int count = in.getInt();
+        checkCount(in, count, minBytes);
+        return count;
+    }
+
+    private static void checkCount(ByteBuffer in, int count, int minBytes) {
+        if (count < 0 || count > in.remaining() / minBytes) {
+            throw new IllegalArgumentException("Count " + count + " exceeds the " + in.remaining() + " bytes left");
+        }
+    }
+
+}
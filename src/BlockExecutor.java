@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+//Applies a batch of transactions with the same outcome as processing them one by one in order.
+//Signatures are checked up front. The batch is then cut into segments at every transaction that
+//spends an output not in the set when its segment started. Inside a segment, transactions that
+//share an input are put in successive waves and each wave is resolved in parallel.
+//Sequence numbers are handed out in block order, ids and outputs are hashed in parallel,
+//and the changes are written to the UTXO set in one pass once the whole batch is done.
+//Contract calls go to Blockchain.runtime, and their state is committed at the same point.
+public class BlockExecutor {
+
+    private static final int BATCH = 16;
+
+    private final ForkJoinPool pool;
+    private final SignatureVerifier verifier;
+
+    public BlockExecutor(ForkJoinPool pool) {
+        this.pool = pool;
+        this.verifier = new SignatureVerifier(pool);
+    }
+
+    //Result i is what utxos-backed processTransaction() would have returned for transactions.get(i).
+    //replacedState may be null; see ContractRuntime.BlockState.commit.
+    public boolean[] execute(List<Transaction> transactions, UTXOSet utxos, Map<SmartContract,Map<Long,Long>> replacedState) {
+        int n = transactions.size();
+        boolean[] accepted = new boolean[n];
+        boolean[] signed = verifySignatures(transactions);
+        Overlay overlay = new Overlay(utxos);
+
+        List<Transaction> calls = new ArrayList<>();
+        List<Integer> callIndices = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Transaction tx = transactions.get(i);
+            if (tx != null && tx.isContractCall()) {
+                calls.add(tx);
+                callIndices.add(i);
+            }
+        }
+        ContractRuntime.BlockState contracts = Blockchain.runtime.begin();
+        boolean[] called = contracts.callAll(calls);
+        for (int k = 0; k < called.length; k++) {
+            accepted[callIndices.get(k)] = called[k];
+        }
+
+        int start = 0;
+        while (start < n) {
+            int end = segmentEnd(transactions, start, overlay);
+            executeSegment(transactions, start, end, signed, accepted, overlay);
+            start = end;
+        }
+
+        overlay.commit();
+        contracts.commit(replacedState);
+        return accepted;
+    }
+
+    private boolean[] verifySignatures(List<Transaction> transactions) {
+        List<Transaction> payments = new ArrayList<>();
+        for (Transaction tx : transactions) {
+            if (tx != null && !tx.isContractCall()) payments.add(tx);
+        }
+        boolean[] checked = verifier.verifyTransactions(payments);
+
+        boolean[] signed = new boolean[transactions.size()];
+        int j = 0;
+        for (int i = 0; i < signed.length; i++) {
+            Transaction tx = transactions.get(i);
+            if (tx != null && !tx.isContractCall()) signed[i] = checked[j++];
+        }
+        return signed;
+    }
+
+    //The first transaction of a segment reads the staged state as is, so it may spend anything.
+    //Later ones must only spend outputs that already existed when the segment began.
+    private int segmentEnd(List<Transaction> transactions, int start, Overlay overlay) {
+        int end = start + 1;
+        for (; end < transactions.size(); end++) {
+            Transaction tx = transactions.get(end);
+            if (tx == null || tx.isContractCall()) continue;
+            for (TransactionInput input : tx.inputs) {
+                if (overlay.get(input.transactionOutputId) == null) return end;
+            }
+        }
+        return end;
+    }
+
+    private void executeSegment(List<Transaction> transactions, int start, int end,
+                                boolean[] signed, boolean[] accepted, Overlay overlay) {
+        Set<String> spent = ConcurrentHashMap.newKeySet();
+
+        for (List<Integer> wave : waves(transactions, start, end)) {
+            int[] indices = wave.stream().mapToInt(Integer::intValue).toArray();
+            forEach(indices, i -> {
+                Transaction tx = transactions.get(i);
+                if (!signed[i]) {
+                    Log.info("#Transaction Signature failed to verify");
+                    return;
+                }
+                for (TransactionInput input : tx.inputs) {
+                    String id = input.transactionOutputId;
+                    input.UTXO = spent.contains(id) ? null : overlay.get(id);
+                }
+                accepted[i] = tx.hasMinimumInputs();
+            });
+            for (int i : indices) {
+                if (!accepted[i]) continue;
+                for (TransactionInput input : transactions.get(i).inputs) {
+                    if (input.UTXO != null) spent.add(input.UTXO.id);
+                }
+            }
+        }
+
+        int count = 0;
+        int[] applied = new int[end - start];
+        for (int i = start; i < end; i++) {
+            if (accepted[i] && !transactions.get(i).isContractCall()) applied[count++] = i;
+        }
+        int first = Transaction.reserveSequence(count);
+        int[] order = new int[transactions.size()];
+        for (int k = 0; k < count; k++) order[applied[k]] = first + k;
+        forEach(Arrays.copyOf(applied, count), i -> transactions.get(i).createOutputs(order[i]));
+
+        for (int i = start; i < end; i++) {
+            Transaction tx = transactions.get(i);
+            if (tx != null && !tx.isContractCall() && accepted[i]) {
+                tx.applyTo(overlay);
+            }
+        }
+    }
+
+    //Wave of a transaction is one past the latest wave that touches any of its inputs.
+    private List<List<Integer>> waves(List<Transaction> transactions, int start, int end) {
+        List<List<Integer>> waves = new ArrayList<>();
+        Map<String,Integer> lastWave = new HashMap<>();
+        for (int i = start; i < end; i++) {
+            Transaction tx = transactions.get(i);
+            if (tx == null || tx.isContractCall()) continue;
+            int wave = 0;
+            for (TransactionInput input : tx.inputs) {
+                Integer last = lastWave.get(input.transactionOutputId);
+                if (last != null) wave = Math.max(wave, last + 1);
+            }
+            for (TransactionInput input : tx.inputs) {
+                lastWave.put(input.transactionOutputId, wave);
+            }
+            while (waves.size() <= wave) waves.add(new ArrayList<>());
+            waves.get(wave).add(i);
+        }
+        return waves;
+    }
+
+    private void forEach(int[] indices, IntConsumer action) {
+        if (indices.length <= BATCH) {
+            new Range(indices, action, 0, indices.length).compute();
+        } else {
+            pool.invoke(new Range(indices, action, 0, indices.length));
+        }
+    }
+
+    private static class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] indices;
+        private final IntConsumer action;
+        private final int from;
+        private final int to;
+
+        Range(int[] indices, IntConsumer action, int from, int to) {
+            this.indices = indices;
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                for (int i = from; i < to; i++) {
+                    action.accept(indices[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Range(indices, action, from, mid), new Range(indices, action, mid, to));
+        }
+    }
+
+    //Staged changes over the live set, written back in the order they were made.
+    private static class Overlay implements UTXOView {
+        private static final TransactionOutput SPENT = new TransactionOutput("", null, 0, null);
+
+        private final UTXOSet base;
+        private final LinkedHashMap<String,TransactionOutput> changes = new LinkedHashMap<>();
+
+        Overlay(UTXOSet base) {
+            this.base = base;
+        }
+
+        @Override
+        public TransactionOutput get(String id) {
+            TransactionOutput staged = changes.get(id);
+            if (staged == SPENT) return null;
+            return staged != null ? staged : base.get(id);
+        }
+
+        @Override
+        public void add(TransactionOutput output) {
+            changes.remove(output.id);
+            changes.put(output.id, output);
+        }
+
+        @Override
+        public TransactionOutput remove(String id) {
+            TransactionOutput existing = get(id);
+            changes.remove(id);
+            changes.put(id, SPENT);
+            return existing;
+        }
+
+        void commit() {
+            for (Map.Entry<String,TransactionOutput> change : changes.entrySet()) {
+                if (change.getValue() == SPENT) {
+                    base.remove(change.getKey());
+                } else {
+                    base.add(change.getValue());
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+//Append-only block log split into segment files, with a fixed-width height index.
+//Blocks are decoded straight from memory-mapped segments; opening only looks at the index.
+public class BlockStore implements Closeable {
+
+    public static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    //Index entry: 32-byte block hash, segment number, offset, length.
+    private static final int ENTRY_SIZE = 32 + 4 + 8 + 4;
+
+    private final Path dir;
+    private final FileChannel index;
+    private final List<FileChannel> segments = new ArrayList<>();
+    private final List<MappedByteBuffer> mapped = new ArrayList<>();
+    private MappedByteBuffer indexMap;
+    private HashMap<String,Integer> heightsByHash;
+    private int height;
+
+    private BlockStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.index = FileChannel.open(dir.resolve("index.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.height = (int) (index.size() / ENTRY_SIZE);
+    }
+
+    public static BlockStore open(Path dir) throws IOException {
+        return new BlockStore(dir);
+    }
+
+    public synchronized int height() {
+        return height;
+    }
+
+    public synchronized void append(Block block) throws IOException {
+        byte[] encoded = BlockCodec.encode(block);
+        int segment = Math.max(segments(), 1) - 1;
+        FileChannel channel = segment(segment);
+        if (channel.size() > 0 && channel.size() + encoded.length > SEGMENT_SIZE) {
+            channel = segment(++segment);
+        }
+        long offset = channel.size();
+        channel.write(ByteBuffer.wrap(encoded), offset);
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.put(hashBytes(block.hash));
+        entry.putInt(segment);
+        entry.putLong(offset);
+        entry.putInt(encoded.length);
+        entry.flip();
+        index.write(entry, (long) height * ENTRY_SIZE);
+
+        if (heightsByHash != null) heightsByHash.put(block.hash, height);
+        height++;
+    }
+
+    //Drops the blocks at newHeight and above, e.g. a branch that lost a reorganization.
+    public synchronized void truncate(int newHeight) throws IOException {
+        if (newHeight < 0 || newHeight > height) {
+            throw new IndexOutOfBoundsException("Cannot truncate to " + newHeight + ", store height is " + height);
+        }
+        if (newHeight == height) return;
+        ByteBuffer entry = indexEntry(newHeight);
+        entry.position(32);
+        int segment = entry.getInt();
+        long offset = entry.getLong();
+
+        for (int i = segments() - 1; i > segment; i--) {
+            segments.remove(i).close();
+            mapped.remove(i);
+            Files.delete(segmentPath(i));
+        }
+        segment(segment).truncate(offset);
+        mapped.set(segment, null);
+        index.truncate((long) newHeight * ENTRY_SIZE);
+        indexMap = null;
+        heightsByHash = null;
+        height = newHeight;
+    }
+
+    public synchronized Block get(int blockHeight) throws IOException {
+        if (blockHeight < 0 || blockHeight >= height) {
+            throw new IndexOutOfBoundsException("No block at height " + blockHeight + ", store height is " + height);
+        }
+        ByteBuffer entry = indexEntry(blockHeight);
+        entry.position(32);
+        int segment = entry.getInt();
+        long offset = entry.getLong();
+        int length = entry.getInt();
+
+        ByteBuffer data = mappedSegment(segment, offset + length).duplicate();
+        data.position((int) offset).limit((int) (offset + length));
+        return BlockCodec.decode(data);
+    }
+
+    //Height of the block with this hash, or -1. The hash map is built from the index on first use.
+    public synchronized int heightOf(String hash) throws IOException {
+        if (heightsByHash == null) {
+            heightsByHash = new HashMap<>(height * 2);
+            byte[] raw = new byte[32];
+            for (int i = 0; i < height; i++) {
+                indexEntry(i).get(raw);
+                heightsByHash.put(StringUtil.toHex(raw), i);
+            }
+        }
+        return heightsByHash.getOrDefault(hash, -1);
+    }
+
+    public Block getByHash(String hash) throws IOException {
+        int blockHeight = heightOf(hash);
+        return blockHeight < 0 ? null : get(blockHeight);
+    }
+
+    //Read-only list view that decodes each block when it is accessed.
+    public List<Block> blocks() {
+        return new AbstractList<Block>() {
+            @Override
+            public Block get(int i) {
+                try {
+                    return BlockStore.this.get(i);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return height();
+            }
+        };
+    }
+
+    public synchronized void flush() throws IOException {
+        index.force(false);
+        for (FileChannel segment : segments) {
+            segment.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        index.close();
+        for (FileChannel segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        mapped.clear();
+        indexMap = null;
+    }
+
+    private int segments() throws IOException {
+        while (Files.exists(segmentPath(segments.size()))) {
+            segment(segments.size());
+        }
+        return segments.size();
+    }
+
+    private FileChannel segment(int number) throws IOException {
+        while (segments.size() <= number) {
+            segments.add(FileChannel.open(segmentPath(segments.size()),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            mapped.add(null);
+        }
+        return segments.get(number);
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("blocks-%05d.dat", number));
+    }
+
+    //Segments keep growing while they are the newest one, so a stale mapping is replaced when too short.
+    private MappedByteBuffer mappedSegment(int number, long end) throws IOException {
+        FileChannel channel = segment(number);
+        MappedByteBuffer map = mapped.get(number);
+        if (map == null || map.capacity() < end) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.set(number, map);
+        }
+        return map;
+    }
+
+    private ByteBuffer indexEntry(int blockHeight) throws IOException {
+        long end = (long) (blockHeight + 1) * ENTRY_SIZE;
+        if (indexMap == null || indexMap.capacity() < end) {
+            indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, (long) height * ENTRY_SIZE);
+        }
+        ByteBuffer entry = indexMap.duplicate();
+        entry.position(blockHeight * ENTRY_SIZE).limit(blockHeight * ENTRY_SIZE + ENTRY_SIZE);
+        return entry.slice();
+    }
+
+    private static byte[] hashBytes(String hash) {
+        byte[] raw = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            raw[i] = (byte) (Character.digit(hash.charAt(i * 2), 16) << 4 | Character.digit(hash.charAt(i * 2 + 1), 16));
+        }
+        return raw;
+    }
+
+}
@@ -0,0 +1,210 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Every block heard of, by hash, linked to its parent and scored by the cumulative work of its branch.
+//Blocks whose parent is unknown wait in a bounded orphan buffer until the parent turns up.
+//Headers are checked on the way in (hash, timestamp, retargeted bits, proof of work); bodies are only checked
+//when Blockchain connects a branch, and a branch that fails is marked invalid with everything on it.
+public class BlockTree {
+
+    public static final int MAX_ORPHANS = 1024;
+
+    public static final class Entry {
+        public final Block block;
+        //Cleared on the root when prune drops what is below it.
+        public Entry parent;
+        public final int height;
+        public final BigInteger work;
+        final List<Entry> children = new ArrayList<>(1);
+        boolean invalid;
+        //Set while the block is on the active chain.
+        BlockUndo undo;
+
+        Entry(Block block, Entry parent) {
+            this(block, parent, parent == null ? 0 : parent.height + 1);
+        }
+
+        Entry(Block block, Entry parent, int height) {
+            this.block = block;
+            this.parent = parent;
+            this.height = height;
+            BigInteger own = Difficulty.getWork(block.getBits());
+            this.work = parent == null ? own : parent.work.add(own);
+        }
+
+        public boolean isInvalid() {
+            return invalid;
+        }
+    }
+
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>();
+    private final LinkedHashMap<String,Block> orphans = new LinkedHashMap<>();
+    private final Map<String,List<String>> orphansByParent = new HashMap<>();
+    private Entry root;
+    private Entry best;
+
+    //Links block and any orphans waiting on it; returns the entries that were added, in order.
+    //Nothing is added for known blocks, blocks with bad headers, or orphans.
+    public List<Entry> add(Block block) {
+        if (entries.containsKey(block.hash) || orphans.containsKey(block.hash)) return Collections.emptyList();
+        Entry parent = entries.get(block.previousHash);
+        if (parent == null && (root != null || !"0".equals(block.previousHash))) {
+            addOrphan(block);
+            return Collections.emptyList();
+        }
+
+        List<Entry> added = new ArrayList<>();
+        List<Block> pending = new ArrayList<>();
+        pending.add(block);
+        while (!pending.isEmpty()) {
+            Block next = pending.remove(pending.size() - 1);
+            Entry entry = link(next, entries.get(next.previousHash));
+            if (entry == null) continue;
+            added.add(entry);
+            List<String> waiting = orphansByParent.remove(next.hash);
+            if (waiting == null) continue;
+            for (String hash : waiting) {
+                Block orphan = orphans.remove(hash);
+                if (orphan != null) pending.add(orphan);
+            }
+        }
+        return added;
+    }
+
+    //Starts an empty tree from a run of already validated blocks at firstHeight onwards, such as the
+    //top of a stored chain; headers are not checked again and the last block becomes the best entry.
+    //Work is counted from the first block, which is enough to compare branches that fork above it.
+    public void anchor(List<Block> blocks, int firstHeight) {
+        if (root != null) throw new IllegalStateException("Tree is not empty");
+        Entry parent = null;
+        for (Block block : blocks) {
+            Entry entry = new Entry(block, parent, parent == null ? firstHeight : parent.height + 1);
+            entries.put(block.hash, entry);
+            if (parent == null) root = entry;
+            else parent.children.add(entry);
+            parent = entry;
+        }
+        best = parent;
+    }
+
+    //Forgets everything that does not descend from newRoot, so the tree stays bounded as the chain grows.
+    public void prune(Entry newRoot) {
+        if (newRoot == root) return;
+        entries.clear();
+        List<Entry> stack = new ArrayList<>();
+        stack.add(newRoot);
+        while (!stack.isEmpty()) {
+            Entry next = stack.remove(stack.size() - 1);
+            entries.put(next.block.hash, next);
+            stack.addAll(next.children);
+        }
+        newRoot.parent = null;
+        root = newRoot;
+        if (best != null && !entries.containsKey(best.block.hash)) best = newRoot.invalid ? null : newRoot;
+    }
+
+    public Entry get(String hash) {
+        return entries.get(hash);
+    }
+
+    public boolean contains(String hash) {
+        return entries.containsKey(hash);
+    }
+
+    //Valid entry with the most cumulative work; the first one seen wins a tie.
+    public Entry getBest() {
+        return best;
+    }
+
+    //Marks entry and its descendants invalid and picks the best of what is left.
+    public void invalidate(Entry entry) {
+        List<Entry> stack = new ArrayList<>();
+        stack.add(entry);
+        while (!stack.isEmpty()) {
+            Entry next = stack.remove(stack.size() - 1);
+            next.invalid = true;
+            stack.addAll(next.children);
+        }
+        if (best != null && best.invalid) {
+            best = null;
+            for (Entry candidate : entries.values()) {
+                if (!candidate.invalid && (best == null || candidate.work.compareTo(best.work) > 0)) best = candidate;
+            }
+        }
+    }
+
+    //Last block both entries build on, or null if they don't share a root.
+    public static Entry findFork(Entry a, Entry b) {
+        while (a != null && b != null && a != b) {
+            if (a.height >= b.height) a = a.parent;
+            else b = b.parent;
+        }
+        return a == b ? a : null;
+    }
+
+    //Entries after from up to and including to, oldest first; from may be null for the whole branch.
+    public static List<Entry> path(Entry from, Entry to) {
+        List<Entry> path = new ArrayList<>(to.height - (from == null ? -1 : from.height));
+        for (Entry e = to; e != from; e = e.parent) {
+            path.add(e);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int orphanCount() {
+        return orphans.size();
+    }
+
+    private Entry link(Block block, Entry parent) {
+        if (parent == null ? root != null : !validHeader(block, parent)) return null;
+        Entry entry = new Entry(block, parent);
+        entries.put(block.hash, entry);
+        if (parent == null) {
+            root = entry;
+        } else {
+            parent.children.add(entry);
+            entry.invalid = parent.invalid;
+        }
+        if (!entry.invalid && (best == null || entry.work.compareTo(best.work) > 0)) best = entry;
+        return entry;
+    }
+
+    private static boolean validHeader(Block block, Entry parent) {
+        List<Block> window = new ArrayList<>(Difficulty.WINDOW);
+        for (Entry e = parent; e != null && window.size() < Difficulty.WINDOW; e = e.parent) {
+            window.add(e.block);
+        }
+        Collections.reverse(window);
+        return block.hash.equals(block.calculateHash())
+                && Difficulty.validTimeStamp(block.getTimeStamp(), window)
+                && block.getBits() == Difficulty.nextBits(window)
+                && Difficulty.meets(block.hash, block.getBits());
+    }
+
+    private void addOrphan(Block block) {
+        if (orphans.size() == MAX_ORPHANS) {
+            Iterator<Block> oldest = orphans.values().iterator();
+            Block evicted = oldest.next();
+            oldest.remove();
+            List<String> siblings = orphansByParent.get(evicted.previousHash);
+            if (siblings != null) {
+                siblings.remove(evicted.hash);
+                if (siblings.isEmpty()) orphansByParent.remove(evicted.previousHash);
+            }
+        }
+        orphans.put(block.hash, block);
+        orphansByParent.computeIfAbsent(block.previousHash, k -> new ArrayList<>()).add(block.hash);
+    }
+
+}
@@ -0,0 +1,54 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//What connecting one block did: the outputs it spent, the ids of those it created, and the contract
+//slots its calls wrote with their earlier values.
+//Reverting it takes the block back off in time proportional to the block, not the chain.
+public class BlockUndo {
+
+    final TransactionOutput[] spent;
+    final String[] created;
+    final Map<SmartContract,Map<Long,Long>> replacedState;
+
+    BlockUndo(List<TransactionOutput> spent, List<String> created, Map<SmartContract,Map<Long,Long>> replacedState) {
+        this.spent = spent.toArray(new TransactionOutput[0]);
+        this.created = created.toArray(new String[0]);
+        this.replacedState = replacedState;
+    }
+
+    //For a block whose transactions were processed locally, so each input holds the output it spent.
+    public static BlockUndo of(Block block) {
+        List<TransactionOutput> spent = new ArrayList<>();
+        List<String> created = new ArrayList<>();
+        for (Transaction transaction : block.transactions) {
+            if (transaction.isContractCall()) continue;
+            for (TransactionOutput output : transaction.outputs) {
+                created.add(output.id);
+            }
+            if (transaction.inputs == null) continue;
+            for (TransactionInput input : transaction.inputs) {
+                if (input.UTXO != null) spent.add(input.UTXO);
+            }
+        }
+        return new BlockUndo(spent, created, block.replacedState);
+    }
+
+    //Outputs spent and created inside the same block are put back and then removed again.
+    public void revert(UTXOView utxos) {
+        for (int i = spent.length - 1; i >= 0; i--) {
+            utxos.add(spent[i]);
+        }
+        for (int i = created.length - 1; i >= 0; i--) {
+            utxos.remove(created[i]);
+        }
+        for (Map.Entry<SmartContract,Map<Long,Long>> entry : replacedState.entrySet()) {
+            entry.getKey().write(entry.getValue());
+        }
+    }
+
+    public int size() {
+        return spent.length + created.length;
+    }
+
+}
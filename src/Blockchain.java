@@ -1,22 +1,42 @@
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.Security;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 
 public class Blockchain {
 
-    public static ArrayList<Block> blockchain = new ArrayList<Block>();
-    public static HashMap<String,TransactionOutput> UTXOs = new HashMap<String,TransactionOutput>();
-
-    public static int difficulty = 3;
-    public static float minimumTransaction = 0.1f;
+    public static List<Block> blockchain = new ArrayList<Block>();
+    public static UTXOSet UTXOs = new UTXOSet();
+    public static BlockTree tree = new BlockTree();
+
+    //Target of the genesis block, and the block time retargeting aims for (0 keeps the target fixed).
+    public static int genesisBits = Difficulty.ofLeadingZeros(3);
+    public static long blockTimeMillis = 1000;
+    //Hashes per second the recent blocks imply, updated when the tip changes; see Difficulty.estimateHashRate.
+    public static volatile double networkHashRate;
+    public static MiningEngine miner = new MiningEngine(Runtime.getRuntime().availableProcessors());
+    public static SignatureVerifier verifier = new SignatureVerifier(ForkJoinPool.commonPool());
+    public static ValidatorSet validators = new ValidatorSet();
+    public static DelegateRegistry delegates = new DelegateRegistry();
+    public static ContractRuntime runtime = new ContractRuntime(ForkJoinPool.commonPool(), ContractRuntime.DEFAULT_GAS_LIMIT);
+    public static BlockExecutor executor = new BlockExecutor(ForkJoinPool.commonPool());
+    public static Mempool mempool = new Mempool(Runtime.getRuntime().availableProcessors());
+    public static long minimumTransaction = Amount.parse("0.1");
     public static Wallet walletA;
     public static Wallet walletB;
     public static Transaction genesisTransaction;
+    public static ChainCheckpoint checkpoint;
+    public static BlockStore store;
+    public static UtxoJournal journal;
 
     public static void main(String[] args) {
         Security.addProvider(new BouncyCastleProvider());
+        Log.enabled = Arrays.asList(args).contains("--verbose");
+        Metrics.register();
         System.out.println("=== Initialization of the Blockchain ===");
 
         walletA = new Wallet();
@@ -28,39 +48,39 @@ public class Blockchain {
         System.out.println("WalletB: " + StringUtil.getStringFromKey(walletB.publicKey));
 
         System.out.println("\n=== Creating genesis block ===");
-        genesisTransaction = new Transaction(coinbase.publicKey, walletA.publicKey, 1000f, null);
+        genesisTransaction = new Transaction(coinbase.publicKey, walletA.publicKey, Amount.of(1000), null);
         genesisTransaction.generateSignature(coinbase.privateKey);
         genesisTransaction.transactionId = "0";
         genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.reciepient, genesisTransaction.value, genesisTransaction.transactionId));
-        UTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
+        UTXOs.add(genesisTransaction.outputs.get(0));
 
         System.out.println("\n[Mining genesis block...]");
         Block genesis = new Block("0");
         genesis.addTransaction(genesisTransaction);
         addBlock(genesis);
         System.out.println("Genesis block has been created! Hash: " + genesis.hash);
-        System.out.println("Balance of WalletA: " + walletA.getBalance());
+        System.out.println("Balance of WalletA: " + Amount.format(walletA.getBalance()));
 
         System.out.println("\n=== Common transaction (PoW) ===");
-        Block block1 = new Block(genesis.hash);
         System.out.println("\nWalletA is sending 40 coins to WalletB");
-        Transaction tx1 = walletA.sendFunds(walletB.publicKey, 40f);
-        block1.addTransaction(tx1);
+        Transaction tx1 = walletA.sendFunds(walletB.publicKey, Amount.of(40));
+        mempool.submit(tx1).join();
+        Block block1 = mempool.buildTemplate(genesis.hash, 100);
         addBlock(block1);
         System.out.println("Transaction has been completed! Block hash: " + block1.hash);
         System.out.println("Balances:");
-        System.out.println("WalletA: " + walletA.getBalance());
-        System.out.println("WalletB: " + walletB.getBalance());
+        System.out.println("WalletA: " + Amount.format(walletA.getBalance()));
+        System.out.println("WalletB: " + Amount.format(walletB.getBalance()));
 
         //Proof of Stake
         System.out.println("\n=== Proof of Stake ===");
         System.out.println("\nWalletA is staking 100 coins");
-        walletA.stakeCoins(100);
+        walletA.stakeCoins(Amount.of(100));
         System.out.println("WalletB is staking 50 coins");
-        walletB.stakeCoins(50);
+        walletB.stakeCoins(Amount.of(50));
 
         System.out.println("\n[Choosing validator...]");
-        Wallet posValidator = selectValidator(Arrays.asList(walletA, walletB));
+        Wallet posValidator = selectValidator(block1.hash);
         System.out.println("Validator has been choose: " + StringUtil.getStringFromKey(posValidator.publicKey));
 
         Block posBlock = new Block(block1.hash);
@@ -71,156 +91,480 @@ public class Blockchain {
 
         //DPoS
         System.out.println("\n=== Delegated Proof of Stake ===");
-        List<Delegate> delegates = new ArrayList<>();
-        delegates.add(new Delegate(walletA,0));
-        delegates.add(new Delegate(walletB,0));
+        Delegate delegate1 = delegates.register(walletA);
+        delegates.register(walletB);
         System.out.println("\nDelegates was created:");
         System.out.println("1. " + StringUtil.getStringFromKey(walletA.publicKey));
         System.out.println("2. " + StringUtil.getStringFromKey(walletB.publicKey));
 
         System.out.println("\n[Voting...]");
         System.out.println("WalletA is voting for Delegate1 (30 votes)");
-        walletA.voteForDelegate(delegates.get(0), 30);
+        walletA.voteForDelegate(delegate1, 30);
         System.out.println("WalletB is voting for Delegate1 (20 votes)");
-        walletB.voteForDelegate(delegates.get(0), 20);
+        walletB.voteForDelegate(delegate1, 20);
 
         System.out.println("\n[Choosing the delegates...]");
-        List<Delegate> topDelegates =  selectDelegates(Arrays.asList(walletA, walletB), 1);
+        List<Delegate> topDelegates =  selectDelegates(1);
         System.out.println("Top delegate: " + StringUtil.getStringFromKey(topDelegates.get(0).wallet.publicKey) +
                 " (votes: " + topDelegates.get(0).votes + ")");
 
         System.out.println("\n[Creating DPoS-block...]");
         Block dposBlock = new Block(posBlock.hash);
-        dposBlock.mineBlockDpos(topDelegates.get(0));
+        dposBlock.mineBlockDpos(delegates.producer(blockchain.size()));
         addBlock(dposBlock);
         System.out.println("DPoS-block has been created by delegate! hash: " + dposBlock.hash);
 
         //ERC-20 токен
         System.out.println("\n=== Token ERC-20 ===");
-        TokenContract token = new TokenContract(walletA.publicKey, "DPoS Coin", "DPOS", 10000f);
+        TokenContract token = new TokenContract(walletA.publicKey, "DPoS Coin", "DPOS", Amount.of(10000));
         Blockchain.deployContract(token);
         System.out.println("\nToken was created: " + token.getName() + " (" + token.getSymbol() + ")");
-        System.out.println("Total supply: " + token.getTotalSupply());
-        System.out.println("Balance of WalletA: " + token.balanceOf(walletA.publicKey));
+        System.out.println("Total supply: " + Amount.format(token.getTotalSupply()));
+        System.out.println("Balance of WalletA: " + Amount.format(token.balanceOf(walletA.publicKey)));
 
         System.out.println("\nWalletA is sending 500 tokens for WalletB");
-        token.transfer(walletA.publicKey, walletB.publicKey, 500f);
+        token.transfer(walletA.publicKey, walletB.publicKey, Amount.of(500));
         System.out.println("Tokens have been transferred!");
         System.out.println("Balances of tokens:");
-        System.out.println("WalletA: " + token.balanceOf(walletA.publicKey));
-        System.out.println("WalletB: " + token.balanceOf(walletB.publicKey));
+        System.out.println("WalletA: " + Amount.format(token.balanceOf(walletA.publicKey)));
+        System.out.println("WalletB: " + Amount.format(token.balanceOf(walletB.publicKey)));
 
         System.out.println("\n=== Check blockchain ===");
         boolean isValid = isChainValid();
+        System.out.println(isValid ? "Blockchain is valid" : "Blockchain is not valid");
 
         System.out.println("\n=== Final balances ===");
-        System.out.println("WalletA: " + walletA.getBalance() + " coins | " +
-                token.balanceOf(walletA.publicKey) + " tokens");
-        System.out.println("WalletB: " + walletB.getBalance() + " coins | " +
-                token.balanceOf(walletB.publicKey) + " tokens");
+        System.out.println("WalletA: " + Amount.format(walletA.getBalance()) + " coins | " +
+                Amount.format(token.balanceOf(walletA.publicKey)) + " tokens");
+        System.out.println("WalletB: " + Amount.format(walletB.getBalance()) + " coins | " +
+                Amount.format(token.balanceOf(walletB.publicKey)) + " tokens");
     }
 
     public static Boolean isChainValid() {
-        Block currentBlock;
-        Block previousBlock;
-        String hashTarget = new String(new char[difficulty]).replace('\0', '0');
-        HashMap<String,TransactionOutput> tempUTXOs = new HashMap<String,TransactionOutput>();
-        tempUTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
-
+        return isChainValid(false);
+    }
 
-        for(int i=1; i < blockchain.size(); i++) {
+    //Only blocks appended after the last checkpoint are replayed, unless fullRevalidation is set
+    //or the chain no longer extends the checkpoint tip.
+    public static Boolean isChainValid(boolean fullRevalidation) {
+        if(fullRevalidation || checkpoint == null || !checkpoint.follows(blockchain)) {
+            checkpoint = new ChainCheckpoint(blockchain.get(0), genesisTransaction);
+        }
 
-            currentBlock = blockchain.get(i);
-            previousBlock = blockchain.get(i-1);
+        int from = checkpoint.getHeight();
+        List<boolean[]> signatures = verifier.verifyBlocks(blockchain, from, blockchain.size());
 
-            if(!currentBlock.hash.equals(currentBlock.calculateHash()) ){
-                System.out.println("#Current Hashes not equal");
+        for(int i=from; i < blockchain.size(); i++) {
+            long start = System.nanoTime();
+            boolean valid = isBlockValid(blockchain.get(i), blockchain.subList(Math.max(0, i - Difficulty.WINDOW), i), signatures.get(i-from), checkpoint);
+            Metrics.blockValidationNanos.record(System.nanoTime() - start);
+            if(!valid) {
+                checkpoint.rollbackBlock();
                 return false;
             }
+            checkpoint.commitBlock(blockchain.get(i));
+        }
+        return true;
+    }
+
+    //recent holds the last Difficulty.WINDOW blocks before currentBlock, oldest first.
+    static boolean isBlockValid(Block currentBlock, List<Block> recent, boolean[] signatures, ChainCheckpoint tempUTXOs) {
+        Block previousBlock = recent.get(recent.size() - 1);
+        if(!currentBlock.hash.equals(currentBlock.calculateHash()) ){
+            Log.info("#Current Hashes not equal");
+            return false;
+        }
+
+        if(!previousBlock.hash.equals(currentBlock.previousHash) ) {
+            Log.info("#Previous Hashes not equal");
+            return false;
+        }
+
+        if(!Difficulty.validTimeStamp(currentBlock.getTimeStamp(), recent)) {
+            Log.info("#Block timestamp is not after the median of recent blocks or is too far ahead");
+            return false;
+        }
 
-            if(!previousBlock.hash.equals(currentBlock.previousHash) ) {
-                System.out.println("#Previous Hashes not equal");
+        if(currentBlock.getBits() != Difficulty.nextBits(recent)) {
+            Log.info("#Block target does not follow the retargeting rule");
+            return false;
+        }
+
+        if(!Difficulty.meets(currentBlock.hash, currentBlock.getBits())) {
+            Log.info("#This block hasn't been mined");
+            return false;
+        }
+
+        if(currentBlock.getTransactionCount() != currentBlock.transactions.size()
+                || !Objects.equals(currentBlock.merkleRoot, MerkleTree.build(currentBlock.transactions).getRootHex())) {
+            Log.info("#Merkle root does not match the transactions");
+            return false;
+        }
+
+        int tempOutput;
+        for(int t=0; t <currentBlock.transactions.size(); t++) {
+            Transaction currentTransaction = currentBlock.transactions.get(t);
+
+            if(!signatures[t]) {
+                Log.info("#Signature on Transaction(" + t + ") is Invalid");
                 return false;
             }
-
-            if(!currentBlock.hash.substring( 0, difficulty).equals(hashTarget)) {
-                System.out.println("#This block hasn't been mined");
+            //Contract calls change contract state, not the UTXO set.
+            if(currentTransaction.isContractCall()) continue;
+            if(!currentTransaction.isBalanced()) {
+                Log.info("#Inputs are note equal to outputs on Transaction(" + t + ")");
                 return false;
             }
 
-            TransactionOutput tempOutput;
-            for(int t=0; t <currentBlock.transactions.size(); t++) {
-                Transaction currentTransaction = currentBlock.transactions.get(t);
+            for(TransactionInput input: currentTransaction.inputs) {
+                tempOutput = tempUTXOs.find(input.transactionOutputId);
 
-                if(!currentTransaction.verifySignature()) {
-                    System.out.println("#Signature on Transaction(" + t + ") is Invalid");
+                if(tempOutput < 0) {
+                    Log.info("#Referenced input on Transaction(" + t + ") is Missing");
                     return false;
                 }
-                if(currentTransaction.getInputsValue() != currentTransaction.getOutputsValue()) {
-                    System.out.println("#Inputs are note equal to outputs on Transaction(" + t + ")");
+
+                if(input.UTXO.value != tempUTXOs.value(tempOutput)) {
+                    Log.info("#Referenced input Transaction(" + t + ") value is Invalid");
                     return false;
                 }
 
-                for(TransactionInput input: currentTransaction.inputs) {
-                    tempOutput = tempUTXOs.get(input.transactionOutputId);
+                tempUTXOs.spend(input.transactionOutputId);
+            }
 
-                    if(tempOutput == null) {
-                        System.out.println("#Referenced input on Transaction(" + t + ") is Missing");
-                        return false;
-                    }
+            for(TransactionOutput output: currentTransaction.outputs) {
+                tempUTXOs.add(output);
+            }
 
-                    if(input.UTXO.value != tempOutput.value) {
-                        System.out.println("#Referenced input Transaction(" + t + ") value is Invalid");
-                        return false;
-                    }
+            if(!KeyRegistry.same(currentTransaction.outputs.get(0).reciepient, currentTransaction.reciepient)) {
+                Log.info("#Transaction(" + t + ") output reciepient is not who it should be");
+                return false;
+            }
+            if(currentTransaction.outputs.size() > 1 && !KeyRegistry.same(currentTransaction.outputs.get(1).reciepient, currentTransaction.sender)) {
+                Log.info("#Transaction(" + t + ") output 'change' is not sender.");
+                return false;
+            }
 
-                    tempUTXOs.remove(input.transactionOutputId);
-                }
+        }
+        return true;
+    }
 
-                for(TransactionOutput output: currentTransaction.outputs) {
-                    tempUTXOs.put(output.id, output);
-                }
+    public static void addBlock(Block newBlock) {
+        newBlock.raiseTimeStamp(Difficulty.medianTimePast(blockchain) + 1);
+        newBlock.mineBlock(Difficulty.nextBits(blockchain));
+        blockchain.add(newBlock);
+        track(newBlock, BlockUndo.of(newBlock));
+        tipChanged();
+        try {
+            if (journal != null) journal.commitBlock(blockchain.size() - 1, newBlock.hash, UTXOs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-                if( currentTransaction.outputs.get(0).reciepient != currentTransaction.reciepient) {
-                    System.out.println("#Transaction(" + t + ") output reciepient is not who it should be");
-                    return false;
-                }
-                if( currentTransaction.outputs.get(1).reciepient != currentTransaction.sender) {
-                    System.out.println("#Transaction(" + t + ") output 'change' is not sender.");
-                    return false;
-                }
+    //Runs the contract calls in block and commits their writes; the block's producer only included
+    //calls that succeeded. Returns the contract state they replaced, or null with nothing committed if
+    //one fails here, which includes calls to contracts that were not deployed on this node.
+    static Map<SmartContract,Map<Long,Long>> callContracts(Block block) {
+        List<Transaction> calls = new ArrayList<>();
+        for (Transaction transaction : block.transactions) {
+            if (transaction.isContractCall()) calls.add(transaction);
+        }
+        Map<SmartContract,Map<Long,Long>> replacedState = new HashMap<>();
+        if (calls.isEmpty()) return replacedState;
+        ContractRuntime.BlockState state = runtime.begin();
+        for (boolean called : state.callAll(calls)) {
+            if (!called) return null;
+        }
+        state.commit(replacedState);
+        return replacedState;
+    }
 
+    //Applies the outputs and spends recorded in an already validated block to UTXOs.
+    static BlockUndo applyBlock(Block block, Map<SmartContract,Map<Long,Long>> replacedState) {
+        List<TransactionOutput> spent = new ArrayList<>();
+        List<String> created = new ArrayList<>();
+        for (Transaction transaction : block.transactions) {
+            for (TransactionOutput output : transaction.outputs) {
+                UTXOs.add(output);
+                created.add(output.id);
+            }
+            if (transaction.inputs == null) continue;
+            for (TransactionInput input : transaction.inputs) {
+                TransactionOutput removed = UTXOs.remove(input.transactionOutputId);
+                if (removed != null) spent.add(removed);
             }
+        }
+        return new BlockUndo(spent, created, replacedState);
+    }
+
+    //Records a block just appended to blockchain in the tree, with what it did to UTXOs.
+    private static void track(Block block, BlockUndo undo) {
+        tree.add(block);
+        BlockTree.Entry entry = tree.get(block.hash);
+        if (entry != null) entry.undo = undo;
+    }
+
+    //Adds blocks from peers to the tree, then moves the active chain to the valid branch with the most
+    //work if that is not the current one. Only blocks above the fork are reverted, using their undo
+    //records, and only the new branch is validated. Returns whether the tip changed.
+    public static boolean acceptBlocks(List<Block> blocks) {
+        boolean linked = false;
+        for (Block block : blocks) {
+            linked |= !tree.add(block).isEmpty();
+        }
+        if (!linked) return false;
+
+        BlockTree.Entry tip = blockchain.isEmpty() ? null : tree.get(blockchain.get(blockchain.size() - 1).hash);
+        if (!blockchain.isEmpty() && (tip == null || !isChainValid())) return false;
+        while (true) {
+            BlockTree.Entry best = tree.getBest();
+            if (best == null || best == tip || tip != null && best.work.compareTo(tip.work) <= 0) return false;
+            if (reorganize(tip, best)) return true;
+        }
+    }
 
+    //Switches from tip to target; if a block on the way fails validation its branch is marked invalid
+    //and the old chain is put back.
+    private static boolean reorganize(BlockTree.Entry tip, BlockTree.Entry target) {
+        BlockTree.Entry fork = tip == null ? null : BlockTree.findFork(tip, target);
+        int base = fork == null ? 0 : fork.height + 1;
+        if (base < blockchain.size()) Log.info(() -> "Reorganizing from height " + base);
+
+        List<Block> reverted = new ArrayList<>();
+        while (blockchain.size() > base) reverted.add(disconnectTip());
+
+        List<BlockTree.Entry> branch = BlockTree.path(fork, target);
+        if (!connectAll(branch)) {
+            while (blockchain.size() > base) disconnectTip();
+            List<BlockTree.Entry> previous = new ArrayList<>();
+            for (int i = reverted.size() - 1; i >= 0; i--) previous.add(tree.get(reverted.get(i).hash));
+            connectAll(previous);
+            return false;
         }
-        System.out.println("Blockchain is valid");
+        persist();
+        tipChanged();
         return true;
     }
 
-    public static void addBlock(Block newBlock) {
-        newBlock.mineBlock(difficulty);
-        blockchain.add(newBlock);
+    //Refreshes networkHashRate and, once the chain lives in a store, drops tree entries that have
+    //fallen more than StoredChain.RECENT blocks below the tip.
+    private static void tipChanged() {
+        int size = blockchain.size();
+        networkHashRate = Difficulty.estimateHashRate(blockchain.subList(Math.max(0, size - Difficulty.WINDOW), size));
+        if (store != null && tree.size() > 2 * StoredChain.RECENT) {
+            BlockTree.Entry root = tree.get(blockchain.get(size - StoredChain.RECENT).hash);
+            if (root != null) tree.prune(root);
+        }
+    }
+
+    private static boolean connectAll(List<BlockTree.Entry> entries) {
+        List<Block> blocks = new ArrayList<>(entries.size());
+        for (BlockTree.Entry entry : entries) blocks.add(entry.block);
+        List<boolean[]> signatures;
+        try {
+            signatures = verifier.verifyBlocks(blocks, 0, blocks.size());
+        } catch (RuntimeException e) {
+            //A malformed key or signature somewhere; check block by block so only its block fails.
+            signatures = null;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (!connect(entries.get(i), signatures == null ? null : signatures.get(i))) {
+                tree.invalidate(entries.get(i));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Validates block on top of the tip and applies it; signatures may be null to check them here.
+    //Anything that throws while validating counts as invalid, with the checkpoint rolled back.
+    private static boolean connect(BlockTree.Entry entry, boolean[] signatures) {
+        Block block = entry.block;
+        Map<SmartContract,Map<Long,Long>> replacedState = new HashMap<>();
+        if (!hasWellFormedInputs(block)) {
+            Log.info("#Block spends a malformed output id");
+            return false;
+        }
+        if (blockchain.isEmpty()) {
+            if (block.transactions.isEmpty()) return false;
+            genesisTransaction = block.transactions.get(0);
+            checkpoint = new ChainCheckpoint(block, genesisTransaction);
+            UTXOs = new UTXOSet();
+            if (journal != null) UTXOs.setListener(journal);
+        } else {
+            int size = blockchain.size();
+            boolean valid;
+            try {
+                if (signatures == null) signatures = verifier.verifyBlock(block);
+                valid = isBlockValid(block, blockchain.subList(Math.max(0, size - Difficulty.WINDOW), size), signatures, checkpoint);
+                if (valid && (replacedState = callContracts(block)) == null) {
+                    Log.info("#A contract call in the block failed");
+                    valid = false;
+                }
+            } catch (RuntimeException e) {
+                Log.info(() -> "#Block failed validation: " + e);
+                valid = false;
+            }
+            if (!valid) {
+                checkpoint.rollbackBlock();
+                return false;
+            }
+            checkpoint.commitBlock(block);
+        }
+        entry.undo = applyBlock(block, replacedState);
+        blockchain.add(block);
+        return true;
     }
 
-    public static Wallet selectValidator(List<Wallet> wallets) {
-        Wallet validator = null;
-        float maxStake = 0;
-        for (Wallet wallet : wallets) {
-            if (wallet.stake > maxStake) {
-                maxStake = wallet.stake;
-                validator = wallet;
+    private static boolean hasWellFormedInputs(Block block) {
+        for (Transaction transaction : block.transactions) {
+            if (transaction.inputs == null) continue;
+            for (TransactionInput input : transaction.inputs) {
+                if (!StringUtil.isHash(input.transactionOutputId)) return false;
             }
         }
-        return validator;
+        return true;
+    }
+
+    private static Block disconnectTip() {
+        Block block = blockchain.remove(blockchain.size() - 1);
+        BlockTree.Entry entry = tree.get(block.hash);
+        entry.undo.revert(UTXOs);
+        checkpoint.disconnectBlock(block.previousHash, entry.undo);
+        entry.undo = null;
+        return block;
+    }
+
+    //The store already follows blockchain, which writes through to it; the journal commits the new tip.
+    private static void persist() {
+        try {
+            if (journal != null) journal.commitBlock(blockchain.size() - 1, blockchain.get(blockchain.size() - 1).hash, UTXOs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Streams the active chain to file in ChainExporter's format; a stored chain is read block by block.
+    public static long exportChain(Path file) throws IOException {
+        return ChainExporter.export(blockchain, file);
+    }
+
+    //Keeps the active chain in a block store under dir from now on, with UTXO changes journaled next to it
+    //and snapshotted every snapshotInterval blocks, picking up whatever both already hold.
+    //Call before any block is added.
+    public static void openStorage(Path dir, int snapshotInterval) throws IOException {
+        if (!blockchain.isEmpty()) {
+            throw new IllegalStateException("Chain is not empty");
+        }
+        store = BlockStore.open(dir);
+        blockchain = new StoredChain(store);
+        journal = new UtxoJournal(dir, snapshotInterval);
+        int size = blockchain.size();
+        UTXOs = new UTXOSet();
+        if (size == 0) {
+            journal.reset(UTXOs, -1, null);
+            return;
+        }
+        int journalHeight;
+        try {
+            journalHeight = journal.load(UTXOs);
+        } catch (IOException | RuntimeException e) {
+            Log.info(() -> "UTXO journal could not be loaded: " + e);
+            journalHeight = -1;
+        }
+
+        //The journal commits after the store appends, so it is at most behind; blocks it missed are
+        //replayed, and a journal that is not on the stored chain is rebuilt from the blocks.
+        if (journalHeight < 0 || journalHeight >= size || !blockchain.get(journalHeight).hash.equals(journal.getHash())) {
+            Log.info("UTXO journal does not match the block store, rebuilding it");
+            UTXOs = new UTXOSet();
+            for (Block block : blockchain) applyBlock(block, new HashMap<>());
+            journal.reset(UTXOs, size - 1, blockchain.get(size - 1).hash);
+        } else if (journalHeight < size - 1) {
+            for (int h = journalHeight + 1; h < size; h++) applyBlock(blockchain.get(h), new HashMap<>());
+            journal.commitBlock(size - 1, blockchain.get(size - 1).hash, UTXOs);
+        }
+        restore();
+    }
+
+    //Rebuilds the rest of what a node keeps in memory for a stored chain whose UTXOs are loaded: the
+    //checkpoint at the tip and the tree over the last StoredChain.RECENT blocks, with their undo records.
+    private static void restore() {
+        int size = blockchain.size();
+        int first = Math.max(0, size - StoredChain.RECENT);
+        genesisTransaction = blockchain.get(0).transactions.get(0);
+        List<Block> recent = new ArrayList<>(blockchain.subList(first, size));
+        tree.anchor(recent, first);
+        for (Block block : recent) tree.get(block.hash).undo = BlockUndo.of(block);
+        checkpoint = new ChainCheckpoint(size, recent.get(recent.size() - 1).hash, UTXOs);
+        tipChanged();
+        Log.info(() -> "Restored " + size + " blocks from the block store");
+    }
+
+    //Loads an exported chain into an empty node, validating each block as it streams in.
+    //If the import fails the node is left with an empty chain again.
+    public static long importChain(Path file) throws IOException {
+        if (!blockchain.isEmpty()) {
+            throw new IllegalStateException("Chain is not empty");
+        }
+        try (ChainImporter importer = new ChainImporter(Files.newInputStream(file))) {
+            long count = importer.importTo(Blockchain::appendImported);
+            checkpoint = importer.getCheckpoint();
+            return count;
+        } catch (IOException | RuntimeException e) {
+            resetChain();
+            throw e;
+        }
+    }
+
+    //Takes every block back off, contract state included, and empties the chain, its store and the tree.
+    private static void resetChain() throws IOException {
+        for (int h = blockchain.size() - 1; h >= 0; h--) {
+            BlockTree.Entry entry = tree.get(blockchain.get(h).hash);
+            if (entry != null && entry.undo != null) entry.undo.revert(UTXOs);
+        }
+        if (store != null) {
+            store.truncate(0);
+            blockchain = new StoredChain(store);
+        } else {
+            blockchain = new ArrayList<Block>();
+        }
+        tree = new BlockTree();
+        UTXOs = new UTXOSet();
+        if (journal != null) journal.reset(UTXOs, -1, null);
+        checkpoint = null;
+        genesisTransaction = null;
+        networkHashRate = 0;
+    }
+
+    private static void appendImported(Block block) {
+        if (blockchain.isEmpty()) {
+            genesisTransaction = block.transactions.get(0);
+        }
+        Map<SmartContract,Map<Long,Long>> replacedState = callContracts(block);
+        if (replacedState == null) {
+            throw new IllegalStateException("A contract call failed in imported block " + block.hash);
+        }
+        BlockUndo undo = applyBlock(block, replacedState);
+        blockchain.add(block);
+        track(block, undo);
+        tipChanged();
+        try {
+            if (journal != null) journal.commitBlock(blockchain.size() - 1, block.hash, UTXOs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Stake-weighted and reproducible: every node holding the same stakes picks the same wallet.
+    public static Wallet selectValidator(String previousHash) {
+        return validators.select(previousHash);
     }
 
-    public static List<Delegate> selectDelegates(List<Wallet> wallets, int count) {
-        List<Delegate> delegates = wallets.stream()
-                .map(w -> new Delegate(w, (int) w.stake))
-                .sorted((d1, d2) -> d2.votes - d1.votes)
-                .limit(count)
-                .collect(Collectors.toList());
-        return delegates;
+    //Elects the count most-voted delegates for the next round; they produce blocks in turn.
+    public static List<Delegate> selectDelegates(int count) {
+        return delegates.elect(count);
     }
 
     public static Map<String, SmartContract> contracts = new HashMap<>();
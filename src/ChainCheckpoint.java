@@ -0,0 +1,139 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+//Chain prefix [0, height) that has already been validated, with the UTXO set it produced.
+public class ChainCheckpoint {
+
+    private int height;
+    private String tipHash;
+    private final UtxoTable utxos = new UtxoTable(1024);
+
+    //XOR of SHA-256(id) over all unspent outputs, so it can be updated per add/remove.
+    private final byte[] utxoDigest = new byte[32];
+
+    //Every spend and add in the current block, in order, so rollbackBlock can replay them backwards.
+    private final List<String> journal = new ArrayList<>();
+    private long[] spentValues = new long[16];
+    private final BitSet created = new BitSet();
+
+    public ChainCheckpoint(Block genesis, Transaction genesisTransaction) {
+        this.height = 1;
+        this.tipHash = genesis.hash;
+        for (TransactionOutput output : genesisTransaction.outputs) {
+            put(output.id, output.value);
+        }
+    }
+
+    //For a prefix validated earlier, such as a chain reopened from its store, that left utxos behind.
+    public ChainCheckpoint(int height, String tipHash, UTXOSet utxos) {
+        this.height = height;
+        this.tipHash = tipHash;
+        for (TransactionOutput output : utxos.values()) {
+            put(output.id, output.value);
+        }
+    }
+
+    public boolean follows(List<Block> chain) {
+        return chain.size() >= height && chain.get(height - 1).hash.equals(tipHash);
+    }
+
+    //Slot of an unspent output in the table, or -1.
+    public int find(String id) {
+        return utxos.find(id);
+    }
+
+    public long value(int slot) {
+        return utxos.value(slot);
+    }
+
+    public void spend(String id) {
+        int slot = utxos.find(id);
+        if (slot < 0) return;
+        recordSpent(id, utxos.value(slot));
+        utxos.remove(id);
+        xor(id);
+    }
+
+    public void add(TransactionOutput output) {
+        //An output replacing one with the same id spends it first, so both go through the digest.
+        spend(output.id);
+        put(output.id, output.value);
+        created.set(journal.size());
+        journal.add(output.id);
+    }
+
+    public void commitBlock(Block block) {
+        height++;
+        tipHash = block.hash;
+        clearJournal();
+    }
+
+    public void rollbackBlock() {
+        for (int i = journal.size() - 1; i >= 0; i--) {
+            String id = journal.get(i);
+            if (!created.get(i)) {
+                put(id, spentValues[i]);
+            } else if (utxos.remove(id)) {
+                xor(id);
+            }
+        }
+        clearJournal();
+    }
+
+    //Takes the committed tip block back off, given what connecting it did; previousHash becomes the tip.
+    public void disconnectBlock(String previousHash, BlockUndo undo) {
+        for (int i = undo.spent.length - 1; i >= 0; i--) {
+            put(undo.spent[i].id, undo.spent[i].value);
+        }
+        for (int i = undo.created.length - 1; i >= 0; i--) {
+            String id = undo.created[i];
+            if (utxos.remove(id)) xor(id);
+        }
+        height--;
+        tipHash = previousHash;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getTipHash() {
+        return tipHash;
+    }
+
+    public int getUtxoCount() {
+        return utxos.size();
+    }
+
+    public String getUtxoDigest() {
+        return StringUtil.toHex(utxoDigest);
+    }
+
+    private void put(String id, long value) {
+        if (utxos.put(id, value)) xor(id);
+    }
+
+    private void recordSpent(String id, long value) {
+        if (journal.size() == spentValues.length) {
+            spentValues = Arrays.copyOf(spentValues, spentValues.length * 2);
+        }
+        spentValues[journal.size()] = value;
+        journal.add(id);
+    }
+
+    private void clearJournal() {
+        journal.clear();
+        created.clear();
+    }
+
+    private void xor(String id) {
+        byte[] hash = StringUtil.sha256(id.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < utxoDigest.length; i++) {
+            utxoDigest[i] ^= hash[i];
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//Writes a chain as a stream of BlockCodec records: a header of MAGIC and the codec version,
+//then one [int length][block bytes] record per block. Only the block being written is held in memory.
+public class ChainExporter implements Closeable {
+
+    public static final int MAGIC = 0x43484e31;
+
+    private final DataOutputStream out;
+    private long count;
+
+    public ChainExporter(OutputStream stream) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(BlockCodec.VERSION);
+    }
+
+    //Blocks can come from the in-memory chain or lazily from BlockStore.blocks().
+    public static long export(Iterable<Block> blocks, Path file) throws IOException {
+        try (ChainExporter exporter = new ChainExporter(Files.newOutputStream(file))) {
+            for (Block block : blocks) {
+                exporter.write(block);
+            }
+            return exporter.getCount();
+        }
+    }
+
+    public void write(Block block) throws IOException {
+        byte[] bytes = BlockCodec.encode(block);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
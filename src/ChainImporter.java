@@ -0,0 +1,121 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+//Reads a ChainExporter stream back one block at a time. importTo validates as it reads,
+//holding at most BATCH decoded blocks so their signatures can be checked in one parallel pass.
+public class ChainImporter implements Closeable {
+
+    private static final int BATCH = 64;
+
+    private final DataInputStream in;
+    private byte[] buffer = new byte[1 << 16];
+    private ChainCheckpoint checkpoint;
+
+    public ChainImporter(InputStream stream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        if (in.readInt() != ChainExporter.MAGIC) {
+            throw new IOException("Not a chain export");
+        }
+        byte version = in.readByte();
+        if (version != BlockCodec.VERSION) {
+            throw new IOException("Unsupported block encoding version: " + version);
+        }
+    }
+
+    //Next block in the stream, or null at the end.
+    public Block next() throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > BlockCodec.MAX_BLOCK_BYTES) throw new IOException("Corrupt record length: " + length);
+        if (length > buffer.length) buffer = new byte[Math.max(length, buffer.length * 2)];
+        in.readFully(buffer, 0, length);
+        try {
+            return BlockCodec.decode(ByteBuffer.wrap(buffer, 0, length));
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt block record", e);
+        }
+    }
+
+    //Validates every block against the ones before it and passes each valid block to sink, in order.
+    //The first block is taken as genesis. Throws at the first invalid block, including one that fails
+    //validation with an exception; returns the block count.
+    public long importTo(Consumer<Block> sink) throws IOException {
+        long height = 0;
+        Block previous = null;
+        //The blocks retargeting reads for the next one.
+        List<Block> window = new ArrayList<>(Difficulty.WINDOW + 1);
+        List<Block> batch = new ArrayList<>(BATCH);
+        while (true) {
+            batch.clear();
+            Block block;
+            while (batch.size() < BATCH && (block = next()) != null) {
+                batch.add(block);
+            }
+            if (batch.isEmpty()) return height;
+
+            int from = 0;
+            if (previous == null) {
+                Block genesis = batch.get(0);
+                if (genesis.transactions.isEmpty()) {
+                    throw new IOException("Genesis block has no transactions: " + genesis.hash);
+                }
+                checkpoint = new ChainCheckpoint(genesis, genesis.transactions.get(0));
+                sink.accept(genesis);
+                previous = genesis;
+                window.add(genesis);
+                height++;
+                from = 1;
+            }
+
+            List<boolean[]> signatures;
+            try {
+                signatures = Blockchain.verifier.verifyBlocks(batch, from, batch.size());
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed signature or key in blocks from height " + height, e);
+            }
+            for (int i = from; i < batch.size(); i++) {
+                Block current = batch.get(i);
+                boolean valid;
+                try {
+                    valid = Blockchain.isBlockValid(current, window, signatures.get(i - from), checkpoint);
+                } catch (RuntimeException e) {
+                    checkpoint.rollbackBlock();
+                    throw new IOException("Invalid block at height " + height + ": " + current.hash, e);
+                }
+                if (!valid) {
+                    checkpoint.rollbackBlock();
+                    throw new IOException("Invalid block at height " + height + ": " + current.hash);
+                }
+                checkpoint.commitBlock(current);
+                sink.accept(current);
+                previous = current;
+                window.add(current);
+                if (window.size() > Difficulty.WINDOW) window.remove(0);
+                height++;
+            }
+        }
+    }
+
+    //Validated state after importTo, so the chain does not need to be replayed again.
+    public ChainCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
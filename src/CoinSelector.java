@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+//Chooses which outputs fund a payment, given a wallet's outputs largest first.
+//Branch-and-bound looks for a set that adds up to the value exactly, so no change output is made;
+//if there is none within MAX_TRIES steps the largest outputs are taken, which needs the fewest inputs.
+public class CoinSelector {
+
+    public static final int MAX_TRIES = 100_000;
+    //Larger wallets go straight to largest-first, which only reads as many outputs as it spends.
+    public static final int MAX_SEARCH_OUTPUTS = 4096;
+
+    //Outputs to spend for value, or null if they don't add up to it.
+    public static List<TransactionOutput> select(Collection<TransactionOutput> largestFirst, int count, long value) {
+        if (value <= 0) return null;
+        if (count <= MAX_SEARCH_OUTPUTS) {
+            List<TransactionOutput> exact = branchAndBound(largestFirst, value);
+            if (exact != null) return exact;
+        }
+        return largestFirst(largestFirst, value);
+    }
+
+    static List<TransactionOutput> largestFirst(Collection<TransactionOutput> largestFirst, long value) {
+        List<TransactionOutput> selected = new ArrayList<>();
+        long total = 0;
+        for (TransactionOutput output : largestFirst) {
+            if (output.value <= 0) break;
+            selected.add(output);
+            total += output.value;
+            if (total >= value) return selected;
+        }
+        return null;
+    }
+
+    //Depth-first over include/exclude of each output in order, pruning branches that overshoot,
+    //can no longer reach value, or can't beat the fewest inputs found so far.
+    static List<TransactionOutput> branchAndBound(Collection<TransactionOutput> largestFirst, long value) {
+        List<TransactionOutput> candidates = new ArrayList<>();
+        Iterator<TransactionOutput> it = largestFirst.iterator();
+        while (it.hasNext()) {
+            TransactionOutput output = it.next();
+            if (output.value <= 0) break;
+            candidates.add(output);
+        }
+        int n = candidates.size();
+        //remaining[i] is the sum of candidates i..n-1.
+        long[] remaining = new long[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            remaining[i] = remaining[i + 1] + candidates.get(i).value;
+        }
+        if (remaining[0] < value) return null;
+
+        boolean[] include = new boolean[n];
+        boolean[] best = null;
+        int bestCount = Integer.MAX_VALUE;
+        int depth = 0;
+        int selected = 0;
+        long total = 0;
+
+        for (int tries = 0; tries < MAX_TRIES; tries++) {
+            boolean backtrack = total > value || total + remaining[depth] < value || selected >= bestCount;
+            if (!backtrack && total == value) {
+                best = include.clone();
+                bestCount = selected;
+                backtrack = true;
+            }
+            if (!backtrack && depth < n) {
+                include[depth] = true;
+                total += candidates.get(depth).value;
+                selected++;
+                depth++;
+                continue;
+            }
+
+            //Undo exclusions, then turn the deepest inclusion into an exclusion.
+            while (depth > 0 && !include[depth - 1]) depth--;
+            if (depth == 0) break;
+            include[depth - 1] = false;
+            total -= candidates.get(depth - 1).value;
+            selected--;
+        }
+
+        if (best == null) return null;
+        List<TransactionOutput> result = new ArrayList<>(bestCount);
+        for (int i = 0; i < n; i++) {
+            if (best[i]) result.add(candidates.get(i));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,56 @@
+import java.util.HashMap;
+import java.util.Map;
+
+//What one contract call sees: its gas budget and a view of contract state. Reads fall through the
+//call's own writes, then the writes staged earlier in the block, then the committed state.
+public class ContractContext {
+
+    public static final long LOAD_GAS = 20;
+    public static final long STORE_GAS = 100;
+
+    public static class OutOfGasException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OutOfGasException(long limit) {
+            super("Out of gas, limit " + limit);
+        }
+    }
+
+    private final SmartContract contract;
+    private final Map<Long,Long> staged;
+    final HashMap<Long,Long> writes = new HashMap<>();
+    private final long gasLimit;
+    private long gasUsed;
+
+    ContractContext(SmartContract contract, Map<Long,Long> staged, long gasLimit) {
+        this.contract = contract;
+        this.staged = staged;
+        this.gasLimit = gasLimit;
+    }
+
+    public void charge(long gas) {
+        gasUsed += gas;
+        if (gasUsed > gasLimit) throw new OutOfGasException(gasLimit);
+    }
+
+    public long load(long key) {
+        charge(LOAD_GAS);
+        Long value = writes.get(key);
+        if (value == null) value = staged.get(key);
+        return value != null ? value : contract.read(key);
+    }
+
+    public void store(long key, long value) {
+        charge(STORE_GAS);
+        writes.put(key, value);
+    }
+
+    public long getGasUsed() {
+        return gasUsed;
+    }
+
+    public long getGasLimit() {
+        return gasLimit;
+    }
+
+}
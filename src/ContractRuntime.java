@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+//Dispatches contract-call transactions to Blockchain.contracts. Each call gets a gas budget, and a
+//call that fails or runs out of gas leaves no writes behind. Within a block, state is copy-on-write:
+//writes are staged per contract and reach the contracts in one commit at the end.
+public class ContractRuntime {
+
+    public static final long DEFAULT_GAS_LIMIT = 100_000;
+    public static final long CALL_GAS = 500;
+
+    private final ForkJoinPool pool;
+    private final long gasLimit;
+
+    public ContractRuntime(ForkJoinPool pool, long gasLimit) {
+        this.pool = pool;
+        this.gasLimit = gasLimit;
+    }
+
+    //A call outside any block, committed straight away.
+    public boolean execute(Transaction call) {
+        return execute(call, null);
+    }
+
+    //Same, adding the values its writes replaced to replaced, as BlockState.commit does.
+    public boolean execute(Transaction call, Map<SmartContract,Map<Long,Long>> replaced) {
+        BlockState state = begin();
+        boolean ok = state.call(call);
+        state.commit(replaced);
+        return ok;
+    }
+
+    public BlockState begin() {
+        return new BlockState();
+    }
+
+    public final class BlockState {
+        private final Map<SmartContract,Map<Long,Long>> staged = new HashMap<>();
+
+        private BlockState() {
+        }
+
+        public boolean call(Transaction tx) {
+            SmartContract contract = Blockchain.contracts.get(tx.getContractAddress());
+            if (contract == null || !tx.verifySignature()) return false;
+            return call(contract, stagedFor(contract), tx);
+        }
+
+        //Calls to one contract run in block order; different contracts run in parallel.
+        public boolean[] callAll(List<Transaction> calls) {
+            boolean[] results = new boolean[calls.size()];
+            Map<SmartContract,List<Integer>> byContract = new LinkedHashMap<>();
+            for (int i = 0; i < calls.size(); i++) {
+                SmartContract contract = Blockchain.contracts.get(calls.get(i).getContractAddress());
+                if (contract != null) byContract.computeIfAbsent(contract, c -> new ArrayList<>()).add(i);
+            }
+
+            List<RecursiveAction> groups = new ArrayList<>();
+            for (Map.Entry<SmartContract,List<Integer>> group : byContract.entrySet()) {
+                SmartContract contract = group.getKey();
+                Map<Long,Long> writes = stagedFor(contract);
+                groups.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        for (int i : group.getValue()) {
+                            Transaction tx = calls.get(i);
+                            results[i] = tx.verifySignature() && call(contract, writes, tx);
+                        }
+                    }
+                });
+            }
+            if (groups.size() == 1) {
+                groups.get(0).invoke();
+            } else if (!groups.isEmpty()) {
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(groups);
+                    }
+                });
+            }
+            return results;
+        }
+
+        public void commit() {
+            commit(null);
+        }
+
+        //replaced, unless null, gets the committed value of each written slot it doesn't hold yet,
+        //so writing it back takes the contracts to where they were before its first commit.
+        public void commit(Map<SmartContract,Map<Long,Long>> replaced) {
+            for (Map.Entry<SmartContract,Map<Long,Long>> entry : staged.entrySet()) {
+                if (entry.getValue().isEmpty()) continue;
+                SmartContract contract = entry.getKey();
+                if (replaced != null) {
+                    Map<Long,Long> previous = replaced.computeIfAbsent(contract, c -> new HashMap<>());
+                    for (long key : entry.getValue().keySet()) previous.putIfAbsent(key, contract.read(key));
+                }
+                contract.write(entry.getValue());
+            }
+            staged.clear();
+        }
+
+        private Map<Long,Long> stagedFor(SmartContract contract) {
+            return staged.computeIfAbsent(contract, c -> new HashMap<>());
+        }
+
+        private boolean call(SmartContract contract, Map<Long,Long> writes, Transaction tx) {
+            ContractContext context = new ContractContext(contract, writes, gasLimit);
+            try {
+                context.charge(CALL_GAS);
+                if (!contract.execute(tx, context)) return false;
+            } catch (ContractContext.OutOfGasException e) {
+                Log.info(() -> "Contract call ran out of gas: " + e.getMessage());
+                return false;
+            } catch (RuntimeException e) {
+                //A faulty contract fails its own call, not the block or the other calls in it.
+                Log.info(() -> "Contract call failed: " + e);
+                return false;
+            }
+            writes.putAll(context.writes);
+            return true;
+        }
+    }
+
+}
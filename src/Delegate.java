@@ -1,7 +1,11 @@
 public class Delegate {
     public Wallet wallet;
+    //Changed through DelegateRegistry once registered, so its ranking stays in order.
     public int votes;
 
+    int heapIndex = -1;
+    int order;
+
     public Delegate(Wallet wallet, int votes) {
         this.wallet = wallet;
         this.votes = votes;
@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+//Delegates ranked by votes in an indexed max-heap. Votes move a delegate in O(log n), and electing
+//the top K walks only the upper part of the heap, O(K log K). Ties go to the earlier registration.
+public class DelegateRegistry {
+
+    private final Map<KeyRegistry.KeyId,Delegate> byKey = new HashMap<>();
+    private final List<Delegate> heap = new ArrayList<>();
+    private List<Delegate> elected = Collections.emptyList();
+
+    //The one delegate for this wallet, created with no votes on first use.
+    public synchronized Delegate register(Wallet wallet) {
+        return byKey.computeIfAbsent(KeyRegistry.of(wallet.publicKey), k -> {
+            Delegate delegate = new Delegate(wallet, 0);
+            add(delegate);
+            return delegate;
+        });
+    }
+
+    //Returns the delegate that got the votes: the registered one for the wallet, which may be another object.
+    public synchronized Delegate vote(Delegate delegate, int votes) {
+        Delegate known = byKey.putIfAbsent(KeyRegistry.of(delegate.wallet.publicKey), delegate);
+        if (known != null) delegate = known;
+        else add(delegate);
+        delegate.votes += votes;
+        siftUp(delegate.heapIndex);
+        return delegate;
+    }
+
+    //False, changing nothing, if the wallet's registered delegate doesn't hold that many votes.
+    public synchronized boolean withdraw(Delegate delegate, int votes) {
+        Delegate known = get(delegate);
+        if (known == null || known.votes < votes) return false;
+        known.votes -= votes;
+        siftDown(known.heapIndex);
+        return true;
+    }
+
+    //Registered delegate for delegate's wallet, or null.
+    public synchronized Delegate get(Delegate delegate) {
+        return byKey.get(KeyRegistry.of(delegate.wallet.publicKey));
+    }
+
+    public synchronized List<Delegate> top(int count) {
+        List<Delegate> result = new ArrayList<>(Math.min(count, heap.size()));
+        if (heap.isEmpty()) return result;
+        PriorityQueue<Delegate> frontier = new PriorityQueue<>(DelegateRegistry::compare);
+        frontier.add(heap.get(0));
+        while (result.size() < count && !frontier.isEmpty()) {
+            Delegate next = frontier.poll();
+            result.add(next);
+            int child = 2 * next.heapIndex + 1;
+            if (child < heap.size()) frontier.add(heap.get(child));
+            if (child + 1 < heap.size()) frontier.add(heap.get(child + 1));
+        }
+        return result;
+    }
+
+    //Starts a round with the top count delegates as block producers.
+    public synchronized List<Delegate> elect(int count) {
+        elected = Collections.unmodifiableList(top(count));
+        return elected;
+    }
+
+    //Round-robin over the elected set; null before the first election.
+    public synchronized Delegate producer(long slot) {
+        if (elected.isEmpty()) return null;
+        return elected.get((int) Math.floorMod(slot, (long) elected.size()));
+    }
+
+    public synchronized List<Delegate> getElected() {
+        return elected;
+    }
+
+    public synchronized int size() {
+        return heap.size();
+    }
+
+    private void add(Delegate delegate) {
+        delegate.order = heap.size();
+        delegate.heapIndex = heap.size();
+        heap.add(delegate);
+        siftUp(delegate.heapIndex);
+    }
+
+    //Negative when a ranks above b.
+    private static int compare(Delegate a, Delegate b) {
+        if (a.votes != b.votes) return Integer.compare(b.votes, a.votes);
+        return Integer.compare(a.order, b.order);
+    }
+
+    private void siftUp(int i) {
+        Delegate delegate = heap.get(i);
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            Delegate above = heap.get(parent);
+            if (compare(delegate, above) >= 0) break;
+            place(above, i);
+            i = parent;
+        }
+        place(delegate, i);
+    }
+
+    private void siftDown(int i) {
+        Delegate delegate = heap.get(i);
+        int n = heap.size();
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) break;
+            if (child + 1 < n && compare(heap.get(child + 1), heap.get(child)) < 0) child++;
+            Delegate below = heap.get(child);
+            if (compare(below, delegate) >= 0) break;
+            place(below, i);
+            i = child;
+        }
+        place(delegate, i);
+    }
+
+    private void place(Delegate delegate, int i) {
+        heap.set(i, delegate);
+        delegate.heapIndex = i;
+    }
+
+}
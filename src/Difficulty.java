@@ -0,0 +1,130 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+//Proof-of-work target as a 256-bit number. Headers carry it in compact form ("bits": a byte count
+//and a three-byte mantissa, as in Bitcoin); a hash meets it when, read as a number, it is not above it.
+//Each block's target is retargeted from the WINDOW blocks before it: their average target, scaled by
+//how long they actually took against Blockchain.blockTimeMillis per block, by at most 4x either way.
+//Timestamps are bounded so they can't skew that: each must be above the median of the MEDIAN_WINDOW
+//blocks before it and at most MAX_FUTURE_MILLIS ahead of the local clock.
+public class Difficulty {
+
+    public static final int WINDOW = 16;
+    public static final int MAX_ADJUSTMENT = 4;
+    public static final int MEDIAN_WINDOW = 11;
+    public static final long MAX_FUTURE_MILLIS = 2 * 60 * 1000;
+    //Easiest target allowed: one leading zero hex digit.
+    public static final BigInteger POW_LIMIT = BigInteger.ONE.shiftLeft(252).subtract(BigInteger.ONE);
+
+    //Bits for the target that takes the given number of leading zero hex digits.
+    public static int ofLeadingZeros(int hexZeros) {
+        return encode(BigInteger.ONE.shiftLeft(256 - hexZeros * 4).subtract(BigInteger.ONE));
+    }
+
+    //Bits for the block after chain, from the last WINDOW blocks of chain.
+    //The first block takes Blockchain.genesisBits; retargeting is off when blockTimeMillis is not positive.
+    public static int nextBits(List<Block> chain) {
+        int n = chain.size();
+        if (n == 0) return Blockchain.genesisBits;
+        Block last = chain.get(n - 1);
+        int count = Math.min(n, WINDOW);
+        if (count < 2 || Blockchain.blockTimeMillis <= 0) return last.getBits();
+
+        BigInteger sum = BigInteger.ZERO;
+        for (int i = n - count; i < n; i++) {
+            sum = sum.add(decode(chain.get(i).getBits()));
+        }
+        long expected = (count - 1) * Blockchain.blockTimeMillis;
+        long actual = last.getTimeStamp() - chain.get(n - count).getTimeStamp();
+        actual = Math.max(expected / MAX_ADJUSTMENT, Math.min(expected * MAX_ADJUSTMENT, actual));
+
+        BigInteger next = sum.multiply(BigInteger.valueOf(actual))
+                .divide(BigInteger.valueOf(expected).multiply(BigInteger.valueOf(count)));
+        return encode(next.min(POW_LIMIT).max(BigInteger.ONE));
+    }
+
+    //Median timestamp of the last MEDIAN_WINDOW blocks of chain; Long.MIN_VALUE if chain is empty.
+    public static long medianTimePast(List<Block> chain) {
+        int n = chain.size();
+        if (n == 0) return Long.MIN_VALUE;
+        int count = Math.min(n, MEDIAN_WINDOW);
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = chain.get(n - count + i).getTimeStamp();
+        }
+        Arrays.sort(times);
+        return times[count / 2];
+    }
+
+    //Whether a block with timeStamp may follow chain.
+    public static boolean validTimeStamp(long timeStamp, List<Block> chain) {
+        return timeStamp > medianTimePast(chain) && timeStamp <= System.currentTimeMillis() + MAX_FUTURE_MILLIS;
+    }
+
+    //Expected hashes per second over the last WINDOW blocks of chain; 0 with fewer than two.
+    public static double estimateHashRate(List<Block> chain) {
+        int n = chain.size();
+        int count = Math.min(n, WINDOW);
+        if (count < 2) return 0;
+        double work = 0;
+        for (int i = n - count + 1; i < n; i++) {
+            work += getWork(chain.get(i).getBits()).doubleValue();
+        }
+        long elapsed = chain.get(n - 1).getTimeStamp() - chain.get(n - count).getTimeStamp();
+        return work * 1000 / Math.max(elapsed, 1);
+    }
+
+    //Average number of hashes needed to meet the target.
+    public static BigInteger getWork(int bits) {
+        return BigInteger.ONE.shiftLeft(256).divide(decode(bits).add(BigInteger.ONE));
+    }
+
+    //How many times harder than POW_LIMIT the target is.
+    public static double getDifficulty(int bits) {
+        return POW_LIMIT.doubleValue() / decode(bits).doubleValue();
+    }
+
+    //hash is a 64-digit lowercase hex SHA-256, as produced by StringUtil.applySha256.
+    public static boolean meets(String hash, int bits) {
+        return hash.length() == 64 && hash.compareTo(toHex(bits)) <= 0;
+    }
+
+    //Target as 32 big-endian bytes, for comparing raw digests while mining.
+    public static byte[] toBytes(int bits) {
+        byte[] raw = decode(bits).toByteArray();
+        byte[] target = new byte[32];
+        int length = Math.min(raw.length, 32);
+        System.arraycopy(raw, raw.length - length, target, 32 - length, length);
+        return target;
+    }
+
+    public static boolean meets(byte[] hash, byte[] target) {
+        return Arrays.compareUnsigned(hash, 0, 32, target, 0, 32) <= 0;
+    }
+
+    public static BigInteger decode(int bits) {
+        int size = bits >>> 24;
+        BigInteger mantissa = BigInteger.valueOf(bits & 0x007fffff);
+        return size <= 3 ? mantissa.shiftRight(8 * (3 - size)) : mantissa.shiftLeft(8 * (size - 3));
+    }
+
+    public static int encode(BigInteger target) {
+        int size = (target.bitLength() + 7) / 8;
+        int mantissa = size <= 3
+                ? target.intValue() << (8 * (3 - size))
+                : target.shiftRight(8 * (size - 3)).intValue();
+        //The top mantissa bit is a sign bit in this format.
+        if ((mantissa & 0x00800000) != 0) {
+            mantissa >>>= 8;
+            size++;
+        }
+        return size << 24 | mantissa;
+    }
+
+    private static String toHex(int bits) {
+        String hex = decode(bits).toString(16);
+        return "0".repeat(64 - hex.length()) + hex;
+    }
+
+}
@@ -0,0 +1,136 @@
+import java.nio.charset.StandardCharsets;
+
+//SHA-256 of previousHash + timeStamp + bits + transaction count + nonce + merkleRoot without building strings per nonce.
+//The constant prefix is compressed once; every hash(nonce) resumes from that midstate.
+public class HeaderHasher {
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int MAX_NONCE_DIGITS = 11;
+
+    private final int[] midstate = new int[8];
+    private final int[] state = new int[8];
+    private final int[] w = new int[64];
+    private final byte[] digest = new byte[32];
+    private final byte[] digits = new byte[MAX_NONCE_DIGITS];
+
+    private final long prefixCompressed;
+    private final int tailLength;
+    private final byte[] suffix;
+    private final byte[] buffer;
+
+    public HeaderHasher(String prefix, String suffix) {
+        byte[] head = prefix.getBytes(StandardCharsets.UTF_8);
+        this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+
+        System.arraycopy(IV, 0, midstate, 0, 8);
+        int full = head.length - head.length % 64;
+        for (int offset = 0; offset < full; offset += 64) {
+            compress(midstate, head, offset);
+        }
+        this.prefixCompressed = full;
+        this.tailLength = head.length - full;
+
+        int maxMessage = tailLength + MAX_NONCE_DIGITS + this.suffix.length + 9;
+        this.buffer = new byte[(maxMessage + 63) / 64 * 64];
+        System.arraycopy(head, full, buffer, 0, tailLength);
+    }
+
+    //Returns an internal buffer that is overwritten by the next call.
+    public byte[] hash(int nonce) {
+        int length = tailLength;
+        int digitCount = writeDigits(nonce);
+        System.arraycopy(digits, MAX_NONCE_DIGITS - digitCount, buffer, length, digitCount);
+        length += digitCount;
+        System.arraycopy(suffix, 0, buffer, length, suffix.length);
+        length += suffix.length;
+
+        long bitLength = (prefixCompressed + length) * 8;
+        buffer[length++] = (byte) 0x80;
+        int end = (length + 8 + 63) / 64 * 64;
+        while (length < end - 8) {
+            buffer[length++] = 0;
+        }
+        for (int i = 7; i >= 0; i--) {
+            buffer[length++] = (byte) (bitLength >>> (i * 8));
+        }
+
+        System.arraycopy(midstate, 0, state, 0, 8);
+        for (int offset = 0; offset < end; offset += 64) {
+            compress(state, buffer, offset);
+        }
+        for (int i = 0; i < 8; i++) {
+            digest[i * 4] = (byte) (state[i] >>> 24);
+            digest[i * 4 + 1] = (byte) (state[i] >>> 16);
+            digest[i * 4 + 2] = (byte) (state[i] >>> 8);
+            digest[i * 4 + 3] = (byte) state[i];
+        }
+        return digest;
+    }
+
+    //Same text as Integer.toString(nonce), right-aligned in digits.
+    private int writeDigits(int nonce) {
+        long value = nonce;
+        boolean negative = value < 0;
+        if (negative) value = -value;
+        int pos = MAX_NONCE_DIGITS;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (negative) digits[--pos] = '-';
+        return MAX_NONCE_DIGITS - pos;
+    }
+
+    private void compress(int[] h, byte[] block, int offset) {
+        for (int i = 0; i < 16; i++) {
+            int j = offset + i * 4;
+            w[i] = (block[j] & 0xff) << 24 | (block[j + 1] & 0xff) << 16 | (block[j + 2] & 0xff) << 8 | (block[j + 3] & 0xff);
+        }
+        for (int i = 16; i < 64; i++) {
+            int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = hh + s1 + ch + K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+            hh = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
+    }
+
+}
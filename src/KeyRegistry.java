@@ -0,0 +1,92 @@
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Interns public keys: every distinct key gets one KeyId holding its encoding,
+//Base64 text and a small integer id, all computed once.
+public class KeyRegistry {
+
+    private static final ConcurrentHashMap<PublicKey,KeyId> byKey = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String,KeyId> byEncoding = new ConcurrentHashMap<>();
+    private static volatile KeyId[] byId = new KeyId[64];
+    private static int nextId;
+
+    public static final class KeyId {
+        public final int id;
+        public final PublicKey key;
+        public final byte[] encoded;
+        public final String base64;
+        private final int hash;
+
+        private KeyId(int id, PublicKey key, byte[] encoded, String base64) {
+            this.id = id;
+            this.key = key;
+            this.encoded = encoded;
+            this.base64 = base64;
+            this.hash = Arrays.hashCode(encoded);
+        }
+
+        //Ids are canonical, so identity is equality.
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public static KeyId of(PublicKey key) {
+        KeyId id = byKey.get(key);
+        if (id != null) return id;
+        byte[] encoded = key.getEncoded();
+        id = intern(key, encoded, Base64.getEncoder().encodeToString(encoded));
+        byKey.putIfAbsent(key, id);
+        return id;
+    }
+
+    //Canonical key for an X.509 encoding, e.g. one read back from disk or the network.
+    public static PublicKey decode(byte[] encoded) {
+        String base64 = Base64.getEncoder().encodeToString(encoded);
+        KeyId id = byEncoding.get(base64);
+        if (id != null) return id.key;
+        try {
+            PublicKey key = KeyFactory.getInstance("ECDSA", "BC").generatePublic(new X509EncodedKeySpec(encoded));
+            return of(key).key;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static KeyId get(int id) {
+        KeyId[] ids = byId;
+        return id >= 0 && id < ids.length ? ids[id] : null;
+    }
+
+    public static boolean same(PublicKey a, PublicKey b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        return of(a) == of(b);
+    }
+
+    public static synchronized int size() {
+        return nextId;
+    }
+
+    private static KeyId intern(PublicKey key, byte[] encoded, String base64) {
+        KeyId existing = byEncoding.get(base64);
+        if (existing != null) return existing;
+        synchronized (KeyRegistry.class) {
+            existing = byEncoding.get(base64);
+            if (existing != null) return existing;
+            KeyId id = new KeyId(nextId, key, encoded, base64);
+            KeyId[] ids = byId;
+            if (nextId == ids.length) ids = Arrays.copyOf(ids, ids.length * 2);
+            ids[nextId++] = id;
+            byId = ids;
+            byEncoding.put(base64, id);
+            return id;
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+import java.util.function.Supplier;
+
+//Console output of the core classes. Off by default so hot paths do not pay for console I/O.
+public class Log {
+
+    public static volatile boolean enabled = false;
+
+    public static void info(String message) {
+        if (enabled) System.out.println(message);
+    }
+
+    //For messages that are expensive to build.
+    public static void info(Supplier<String> message) {
+        if (enabled) System.out.println(message.get());
+    }
+
+}
@@ -0,0 +1,206 @@
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Thread-safe pool of pending transactions.
+//Signatures are checked on a separate pool; inputs are claimed in a concurrent index so a
+//second transaction spending the same output is rejected without taking a global lock.
+//Contract calls spend no outputs; they wait in arrival order, each once, and go first into a template.
+public class Mempool {
+
+    //Higher value first, then fewer inputs (cheaper to validate), then arrival order.
+    public static final Comparator<Entry> PRIORITY = Comparator
+            .comparing((Entry e) -> e.transaction.value, Comparator.reverseOrder())
+            .thenComparingInt(e -> e.transaction.inputs.size())
+            .thenComparingLong(e -> e.sequence);
+
+    private final ExecutorService verifiers;
+    private final ConcurrentHashMap<String,Entry> claimedOutputs = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> queue = new ConcurrentSkipListSet<>(PRIORITY);
+    private final AtomicLong sequence = new AtomicLong();
+    //Pending calls by the hash of their signed data, and that key in arrival order.
+    private final ConcurrentHashMap<String,Transaction> calls = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> callOrder = new ConcurrentLinkedQueue<>();
+
+    public static class Entry {
+        public final Transaction transaction;
+        public final long sequence;
+
+        Entry(Transaction transaction, long sequence) {
+            this.transaction = transaction;
+            this.sequence = sequence;
+        }
+    }
+
+    public Mempool(int verifierThreads) {
+        this.verifiers = Executors.newFixedThreadPool(verifierThreads, r -> {
+            Thread t = new Thread(r, "mempool-verifier");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    //Completes with true once the transaction is in the pool, false if it was rejected.
+    public CompletableFuture<Boolean> submit(Transaction transaction) {
+        if (transaction != null && transaction.isContractCall()) return submitCall(transaction);
+        if (transaction == null || transaction.inputs == null || transaction.inputs.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Entry entry = new Entry(transaction, sequence.getAndIncrement());
+        return CompletableFuture.supplyAsync(transaction::verifySignature, verifiers)
+                .thenApply(valid -> valid && admit(entry));
+    }
+
+    //Calls to contracts this node has not deployed could never go into a block here.
+    private CompletableFuture<Boolean> submitCall(Transaction call) {
+        if (call.sender == null || !Blockchain.contracts.containsKey(call.getContractAddress())) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return CompletableFuture.supplyAsync(call::verifySignature, verifiers).thenApply(valid -> {
+            if (!valid) return false;
+            String key = callKey(call);
+            if (calls.putIfAbsent(key, call) != null) return false;
+            callOrder.add(key);
+            return true;
+        });
+    }
+
+    private boolean admit(Entry entry) {
+        List<TransactionInput> inputs = entry.transaction.inputs;
+        for (int i = 0; i < inputs.size(); i++) {
+            String outputId = inputs.get(i).transactionOutputId;
+            if (!Blockchain.UTXOs.contains(outputId) || claimedOutputs.putIfAbsent(outputId, entry) != null) {
+                release(entry, i);
+                return false;
+            }
+        }
+        queue.add(entry);
+        return true;
+    }
+
+    //Best transactions in priority order; they stay in the pool.
+    public List<Transaction> selectTransactions(int max) {
+        List<Transaction> selected = new ArrayList<>(Math.min(max, size()));
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext() && selected.size() < max) {
+            selected.add(it.next().transaction);
+        }
+        for (Iterator<String> keys = callOrder.iterator(); keys.hasNext() && selected.size() < max; ) {
+            Transaction call = calls.get(keys.next());
+            if (call != null) selected.add(call);
+        }
+        return selected;
+    }
+
+    //New block on top of previousHash with up to max of the best transactions.
+    //Every transaction taken out is processed against the UTXO set; those that fail are dropped.
+    public Block buildTemplate(String previousHash, int max) {
+        Block template = new Block(previousHash);
+        List<Transaction> pendingCalls = new ArrayList<>();
+        String key;
+        while (pendingCalls.size() < max && (key = callOrder.poll()) != null) {
+            Transaction call = calls.remove(key);
+            if (call != null) pendingCalls.add(call);
+        }
+        if (!pendingCalls.isEmpty()) template.addTransactions(pendingCalls);
+        while (template.transactions.size() < max && !queue.isEmpty()) {
+            List<Transaction> batch = new ArrayList<>();
+            while (batch.size() < max - template.transactions.size()) {
+                Entry entry = queue.pollFirst();
+                if (entry == null) break;
+                release(entry, entry.transaction.inputs.size());
+                batch.add(entry.transaction);
+            }
+            template.addTransactions(batch);
+        }
+        return template;
+    }
+
+    public boolean remove(Transaction transaction) {
+        if (transaction.isContractCall()) return calls.remove(callKey(transaction), transaction);
+        for (Entry entry : queue) {
+            if (entry.transaction == transaction && queue.remove(entry)) {
+                release(entry, transaction.inputs.size());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Whether a pooled transaction already spends the output.
+    public boolean isClaimed(String outputId) {
+        return claimedOutputs.containsKey(outputId);
+    }
+
+    //Live view of outputs without those a pending transaction already spends, in the same order.
+    //Filtered as it is iterated, so a caller that stops early only checks what it read.
+    public Collection<TransactionOutput> unclaimed(Collection<TransactionOutput> outputs) {
+        return new AbstractCollection<TransactionOutput>() {
+            @Override
+            public Iterator<TransactionOutput> iterator() {
+                Iterator<TransactionOutput> all = outputs.iterator();
+                return new Iterator<TransactionOutput>() {
+                    private TransactionOutput next = advance();
+
+                    private TransactionOutput advance() {
+                        while (all.hasNext()) {
+                            TransactionOutput output = all.next();
+                            if (!isClaimed(output.id)) return output;
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public TransactionOutput next() {
+                        if (next == null) throw new NoSuchElementException();
+                        TransactionOutput output = next;
+                        next = advance();
+                        return output;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (Iterator<TransactionOutput> it = iterator(); it.hasNext(); it.next()) size++;
+                return size;
+            }
+        };
+    }
+
+    public int size() {
+        return queue.size() + calls.size();
+    }
+
+    public void shutdown() {
+        verifiers.shutdownNow();
+    }
+
+    private static String callKey(Transaction call) {
+        return StringUtil.applySha256(call.getSignatureData());
+    }
+
+    private void release(Entry entry, int claimedInputs) {
+        for (int i = 0; i < claimedInputs; i++) {
+            claimedOutputs.remove(entry.transaction.inputs.get(i).transactionOutputId, entry);
+        }
+    }
+
+}
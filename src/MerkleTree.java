@@ -0,0 +1,162 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+//Binary Merkle tree over transaction ids.
+//Leaves are SHA-256(0x00 || id) and inner nodes SHA-256(0x01 || left || right), so a leaf can never pass for
+//an inner node; an odd node at the end of a level is hashed alone as SHA-256(0x01 || node).
+//The leaf count a proof is checked against comes from the block header, which commits to it.
+//All levels are kept, so append and proof generation are O(log n).
+public class MerkleTree {
+
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    private final List<ArrayList<byte[]>> levels = new ArrayList<>();
+
+    public static class Proof {
+        public final int index;
+        public final List<byte[]> siblings;
+
+        public Proof(int index, List<byte[]> siblings) {
+            this.index = index;
+            this.siblings = siblings;
+        }
+    }
+
+    public MerkleTree() {
+        levels.add(new ArrayList<byte[]>());
+    }
+
+    //Builds all levels at once; large levels are hashed in parallel.
+    public static MerkleTree build(List<Transaction> transactions) {
+        MerkleTree tree = new MerkleTree();
+        ArrayList<byte[]> level = tree.levels.get(0);
+        byte[][] leaves = new byte[transactions.size()][];
+        IntStream leafRange = IntStream.range(0, leaves.length);
+        if (leaves.length >= PARALLEL_THRESHOLD) leafRange = leafRange.parallel();
+        leafRange.forEach(i -> leaves[i] = leaf(transactions.get(i).transactionId));
+        for (byte[] leaf : leaves) level.add(leaf);
+        while (level.size() > 1) {
+            ArrayList<byte[]> current = level;
+            int parents = (current.size() + 1) / 2;
+            IntStream range = IntStream.range(0, parents);
+            if (current.size() >= PARALLEL_THRESHOLD) range = range.parallel();
+            byte[][] next = new byte[parents][];
+            range.forEach(i -> next[i] = parent(current, i));
+
+            level = new ArrayList<byte[]>(parents);
+            for (byte[] node : next) level.add(node);
+            tree.levels.add(level);
+        }
+        return tree;
+    }
+
+    public void append(String transactionId) {
+        ArrayList<byte[]> level = levels.get(0);
+        level.add(leaf(transactionId));
+        int index = level.size() - 1;
+        for (int l = 0; levels.get(l).size() > 1; l++) {
+            if (l + 1 == levels.size()) levels.add(new ArrayList<byte[]>());
+            ArrayList<byte[]> up = levels.get(l + 1);
+            byte[] node = parent(levels.get(l), index / 2);
+            if (index / 2 < up.size()) {
+                up.set(index / 2, node);
+            } else {
+                up.add(node);
+            }
+            index /= 2;
+        }
+    }
+
+    public int size() {
+        return levels.get(0).size();
+    }
+
+    public byte[] getRoot() {
+        ArrayList<byte[]> top = levels.get(levels.size() - 1);
+        return top.isEmpty() ? null : top.get(0);
+    }
+
+    public String getRootHex() {
+        byte[] root = getRoot();
+        return root == null ? null : StringUtil.toHex(root);
+    }
+
+    public Proof proof(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("No leaf " + index + " in a tree of " + size());
+        }
+        List<byte[]> siblings = new ArrayList<>();
+        int i = index;
+        for (int l = 0; l < levels.size() - 1; l++) {
+            int sibling = i ^ 1;
+            if (sibling < levels.get(l).size()) siblings.add(levels.get(l).get(sibling));
+            i /= 2;
+        }
+        return new Proof(index, siblings);
+    }
+
+    //Checks that transactionId is in header's transactions; the proof's shape follows from the header's count.
+    public static boolean verify(String transactionId, Proof proof, Block header) {
+        int width = header.getTransactionCount();
+        if (header.merkleRoot == null || proof.index < 0 || proof.index >= width) return false;
+        byte[] node = leaf(transactionId);
+        int i = proof.index;
+        int s = 0;
+        while (width > 1) {
+            int sibling = i ^ 1;
+            if (sibling < width) {
+                if (s == proof.siblings.size()) return false;
+                byte[] other = proof.siblings.get(s++);
+                node = (i & 1) == 0 ? hash(node, other) : hash(other, node);
+            } else {
+                node = hash(node);
+            }
+            i /= 2;
+            width = (width + 1) / 2;
+        }
+        return s == proof.siblings.size() && StringUtil.toHex(node).equals(header.merkleRoot);
+    }
+
+    //Hex ids go in as their raw bytes; anything else (e.g. the genesis id "0") as UTF-8.
+    static byte[] leaf(String transactionId) {
+        String id = String.valueOf(transactionId);
+        byte[] bytes = null;
+        if (id.length() == 64) {
+            bytes = new byte[32];
+            for (int i = 0; i < 32 && bytes != null; i++) {
+                int hi = Character.digit(id.charAt(i * 2), 16);
+                int lo = Character.digit(id.charAt(i * 2 + 1), 16);
+                if (hi < 0 || lo < 0) bytes = null;
+                else bytes[i] = (byte) (hi << 4 | lo);
+            }
+        }
+        if (bytes == null) bytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] input = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, input, 1, bytes.length);
+        return StringUtil.sha256(input);
+    }
+
+    private static byte[] parent(List<byte[]> level, int i) {
+        int left = i * 2;
+        if (left + 1 == level.size()) return hash(level.get(left));
+        return hash(level.get(left), level.get(left + 1));
+    }
+
+    private static byte[] hash(byte[] only) {
+        byte[] input = new byte[33];
+        input[0] = 1;
+        System.arraycopy(only, 0, input, 1, 32);
+        return StringUtil.sha256(input);
+    }
+
+    private static byte[] hash(byte[] left, byte[] right) {
+        byte[] input = new byte[65];
+        input[0] = 1;
+        System.arraycopy(left, 0, input, 1, 32);
+        System.arraycopy(right, 0, input, 33, 32);
+        return StringUtil.sha256(input);
+    }
+
+}
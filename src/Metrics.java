@@ -0,0 +1,120 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+//Node-wide counters and latency histograms. Recording is a few lock-free adds;
+//reading happens through JMX (Metrics.register) or the text endpoint of MetricsServer.
+public class Metrics {
+
+    public static final LongAdder hashes = new LongAdder();
+    public static final LongAdder blocksMined = new LongAdder();
+    public static final LatencyHistogram blockMiningNanos = new LatencyHistogram();
+    public static final LatencyHistogram signatureVerifyNanos = new LatencyHistogram();
+    public static final LongAdder transactionsProcessed = new LongAdder();
+    public static final LatencyHistogram blockValidationNanos = new LatencyHistogram();
+
+    private static final int WINDOW_SECONDS = 60;
+    //Per slot, the second it counts in the high 32 bits and its count in the low 32, so moving a slot
+    //on to a new second and counting in it is one CAS and no increment can land in a stale second.
+    private static final AtomicLongArray transactionSlots = new AtomicLongArray(WINDOW_SECONDS);
+
+    public static void transactionProcessed() {
+        transactionsProcessed.increment();
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % WINDOW_SECONDS);
+        while (true) {
+            long word = transactionSlots.get(slot);
+            //Already moved on to a later second by a thread that read the clock after this one.
+            if (word >>> 32 > second) return;
+            long next = word >>> 32 == second ? word + 1 : second << 32 | 1;
+            if (transactionSlots.compareAndSet(slot, word, next)) return;
+        }
+    }
+
+    //Average over the last WINDOW_SECONDS complete seconds.
+    public static double transactionsPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int slot = 0; slot < WINDOW_SECONDS; slot++) {
+            long word = transactionSlots.get(slot);
+            long second = word >>> 32;
+            if (second < now && second >= now - WINDOW_SECONDS) {
+                total += word & 0xffffffffL;
+            }
+        }
+        return (double) total / WINDOW_SECONDS;
+    }
+
+    public static void register() {
+        try {
+            ObjectName name = new ObjectName("blockchain:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Prometheus-style text exposition of every metric.
+    public static String render() {
+        StringBuilder out = new StringBuilder(2048);
+        gauge(out, "blockchain_hash_rate", "Hashes per second of the last mined block", Blockchain.miner.getLastHashRate());
+        gauge(out, "blockchain_difficulty", "Difficulty of the last mined block relative to the easiest target", Blockchain.miner.getLastDifficulty());
+        gauge(out, "blockchain_network_hash_rate", "Hashes per second implied by the work and timestamps of recent blocks", Blockchain.networkHashRate);
+        counter(out, "blockchain_hashes_total", "Header hashes computed while mining", hashes.sum());
+        counter(out, "blockchain_blocks_mined_total", "Blocks mined", blocksMined.sum());
+        histogram(out, "blockchain_block_mining_seconds", "Time to find a nonce", blockMiningNanos);
+        histogram(out, "blockchain_signature_verify_seconds", "ECDSA signature verification latency", signatureVerifyNanos);
+        counter(out, "blockchain_transactions_processed_total", "Transactions applied to the UTXO set", transactionsProcessed.sum());
+        gauge(out, "blockchain_transactions_per_second", "Transactions processed per second over the last minute", transactionsPerSecond());
+        gauge(out, "blockchain_utxo_set_size", "Unspent transaction outputs", Blockchain.UTXOs.size());
+        histogram(out, "blockchain_block_validation_seconds", "Time to validate one block", blockValidationNanos);
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getPercentile(quantile * 100) / 1e9).append('\n');
+        }
+        out.append(name).append("_sum ").append(histogram.getSum() / 1e9).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static class Bean implements MetricsMXBean {
+        public double getHashRate() { return Blockchain.miner.getLastHashRate(); }
+        public double getDifficulty() { return Blockchain.miner.getLastDifficulty(); }
+        public double getNetworkHashRate() { return Blockchain.networkHashRate; }
+        public long getHashes() { return hashes.sum(); }
+        public long getBlocksMined() { return blocksMined.sum(); }
+        public double getBlockMiningMillisMean() { return blockMiningNanos.getMean() / 1e6; }
+        public long getBlockMiningMillisP99() { return TimeUnit.NANOSECONDS.toMillis(blockMiningNanos.getPercentile(99)); }
+        public long getSignaturesVerified() { return signatureVerifyNanos.getCount(); }
+        public double getSignatureVerifyMicrosMean() { return signatureVerifyNanos.getMean() / 1e3; }
+        public long getSignatureVerifyMicrosP99() { return TimeUnit.NANOSECONDS.toMicros(signatureVerifyNanos.getPercentile(99)); }
+        public long getTransactionsProcessed() { return transactionsProcessed.sum(); }
+        public double getTransactionsPerSecond() { return transactionsPerSecond(); }
+        public int getUtxoSetSize() { return Blockchain.UTXOs.size(); }
+        public long getBlocksValidated() { return blockValidationNanos.getCount(); }
+        public double getBlockValidationMicrosMean() { return blockValidationNanos.getMean() / 1e3; }
+        public long getBlockValidationMicrosP99() { return TimeUnit.NANOSECONDS.toMicros(blockValidationNanos.getPercentile(99)); }
+    }
+
+}
@@ -0,0 +1,24 @@
+public interface MetricsMXBean {
+
+    double getHashRate();
+    double getDifficulty();
+    double getNetworkHashRate();
+    long getHashes();
+    long getBlocksMined();
+    double getBlockMiningMillisMean();
+    long getBlockMiningMillisP99();
+
+    long getSignaturesVerified();
+    double getSignatureVerifyMicrosMean();
+    long getSignatureVerifyMicrosP99();
+
+    long getTransactionsProcessed();
+    double getTransactionsPerSecond();
+
+    int getUtxoSetSize();
+
+    long getBlocksValidated();
+    double getBlockValidationMicrosMean();
+    long getBlockValidationMicrosP99();
+
+}
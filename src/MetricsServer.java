@@ -0,0 +1,54 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+//Pull endpoint on the loopback interface: any HTTP GET returns Metrics.render() as plain text.
+public class MetricsServer implements Closeable {
+
+    private final ServerSocket socket;
+    private final Thread acceptor;
+
+    public MetricsServer(int port) throws IOException {
+        this.socket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::serve, "metrics-server");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    private void serve() {
+        while (!socket.isClosed()) {
+            try (Socket client = socket.accept()) {
+                client.setSoTimeout(2000);
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    //skip request line and headers
+                }
+                byte[] body = Metrics.render().getBytes(StandardCharsets.UTF_8);
+                OutputStream out = client.getOutputStream();
+                out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4\r\nContent-Length: "
+                        + body.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+            } catch (IOException e) {
+                if (socket.isClosed()) return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+}
@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MiningEngine {
+
+    private final int threads;
+    private final ExecutorService pool;
+
+    private volatile long lastHashes;
+    private volatile double lastHashRate;
+    private volatile double lastDifficulty;
+
+    public MiningEngine(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "miner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    //Each worker owns its HeaderHasher, so the loop allocates nothing per nonce.
+    //Worker w tries nonces start + w, start + w + threads, ... until any worker's hash is at most target.
+    public int findNonce(Block block, byte[] target) {
+        int start = block.getNonce();
+        AtomicBoolean found = new AtomicBoolean(false);
+        AtomicInteger winner = new AtomicInteger(start);
+        LongAdder hashes = new LongAdder();
+        long begin = System.nanoTime();
+
+        List<Future<?>> workers = new ArrayList<>(threads);
+        for (int w = 0; w < threads; w++) {
+            final int offset = w;
+            workers.add(pool.submit(() -> {
+                HeaderHasher hasher = block.headerHasher();
+                long count = 0;
+                for (int nonce = start + offset; !found.get(); nonce += threads) {
+                    count++;
+                    if (Difficulty.meets(hasher.hash(nonce), target)) {
+                        if (found.compareAndSet(false, true)) {
+                            winner.set(nonce);
+                        }
+                        break;
+                    }
+                }
+                hashes.add(count);
+            }));
+        }
+
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (Exception e) {
+            found.set(true);
+            throw new RuntimeException(e);
+        }
+
+        long elapsed = Math.max(System.nanoTime() - begin, 1);
+        lastHashes = hashes.sum();
+        lastHashRate = lastHashes * 1_000_000_000.0 / elapsed;
+        lastDifficulty = Difficulty.getDifficulty(block.getBits());
+        Metrics.hashes.add(lastHashes);
+        Metrics.blocksMined.increment();
+        Metrics.blockMiningNanos.record(elapsed);
+        return winner.get();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getLastHashes() {
+        return lastHashes;
+    }
+
+    public double getLastHashRate() {
+        return lastHashRate;
+    }
+
+    public double getLastDifficulty() {
+        return lastDifficulty;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+}
@@ -0,0 +1,620 @@
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.security.Security;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//Peer-to-peer node over non-blocking NIO. One selector thread owns the chain: it gossips transactions
+//and new blocks, syncs headers first from the best peer, fetches the missing bodies from every peer
+//that has them and switches to the branch with the most work once it validates (see Blockchain.acceptBlocks).
+//The chain lives in Blockchain's static fields, so there is one node per JVM.
+//Frames are [int length][byte type][payload]; blocks, headers and transactions use BlockCodec.
+//
+//Run several on localhost, e.g.
+//  java Node --port 9001 --mine 2000
+//  java Node --port 9002 --peer localhost:9001
+//  java Node --port 9003 --peer localhost:9001 --peer localhost:9002
+//Only a node started without --peer creates the genesis block.
+//--block-time sets the interval difficulty retargeting aims for; every node must use the same value.
+//--data keeps the chain in a block store under that directory, with the UTXO set journaled next to it and
+//snapshotted every --snapshot-interval blocks, so a restarted node resumes from its tip.
+//--metrics-port serves Metrics.render() over HTTP on the loopback interface (0 picks a free port).
+public class Node implements Closeable {
+
+    static final byte HELLO = 1;       //[int height][id tip]
+    static final byte TX = 2;          //[transaction]
+    static final byte BLOCK = 3;       //[int height][block], a newly mined block
+    static final byte GET_HEADERS = 4; //[int from]
+    static final byte HEADERS = 5;     //[int from][int count][header]...
+    static final byte GET_BLOCKS = 6;  //[int from][int to]
+    static final byte BODY = 7;        //[int height][block]
+
+    private static final int MAX_FRAME = BlockCodec.MAX_BLOCK_BYTES;
+    private static final int MAX_HEADERS = 2000;
+    private static final int REORG_WINDOW = 64;
+    private static final int BODY_CHUNK = 16;
+    //A peer's frames are not read while more than this is waiting to be sent to it.
+    private static final int MAX_QUEUED_BYTES = 8 << 20;
+    private static final int MAX_TEMPLATE = 1000;
+    private static final long SYNC_TIMEOUT_MS = 10_000;
+    private static final long RECONNECT_MS = 2_000;
+    private static final int SEEN_LIMIT = 100_000;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final List<InetSocketAddress> seeds = new ArrayList<>();
+    private final List<Peer> peers = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<String> seenTransactions = seenSet();
+    private final Set<String> seenBlocks = seenSet();
+    private volatile boolean running = true;
+    private long nextReconnect;
+
+    private final Wallet wallet = new Wallet();
+    private final long mineInterval;
+    private long nextMine;
+
+    //Sync in progress: headers [syncFork, syncFork + syncHeaders.size()) from syncPeer.
+    private Peer syncPeer;
+    private int syncFrom = -1;
+    private int syncFork;
+    private List<Block> syncHeaders;
+    private Map<Integer,Block> syncBodies;
+    private long syncStarted;
+
+    private static final class Peer {
+        final SocketChannel channel;
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        long queuedBytes;
+        ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        InetSocketAddress seed;
+        int height = -1;
+        String tip;
+
+        Peer(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    //mineInterval is the pause between mined blocks in ms, or 0 for a node that does not mine.
+    public Node(int port, long mineInterval) throws IOException {
+        this.mineInterval = mineInterval;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Security.addProvider(new BouncyCastleProvider());
+        int port = 9001;
+        long mine = 0;
+        String dataDir = null;
+        int snapshotInterval = 1000;
+        int metricsPort = -1;
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--mine": mine = Long.parseLong(args[++i]); break;
+                case "--block-time": Blockchain.blockTimeMillis = Long.parseLong(args[++i]); break;
+                case "--verbose": Log.enabled = true; break;
+                case "--data": dataDir = args[++i]; break;
+                case "--snapshot-interval": snapshotInterval = Integer.parseInt(args[++i]); break;
+                case "--metrics-port": metricsPort = Integer.parseInt(args[++i]); break;
+                case "--peer":
+                    String[] hostPort = args[++i].split(":");
+                    peers.add(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+                    break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (dataDir != null) Blockchain.openStorage(Paths.get(dataDir), snapshotInterval);
+        Metrics.register();
+        if (metricsPort >= 0) {
+            MetricsServer metrics = new MetricsServer(metricsPort);
+            Log.info("Metrics on http://127.0.0.1:" + metrics.getPort() + "/");
+        }
+        Node node = new Node(port, mine);
+        for (InetSocketAddress peer : peers) node.addPeer(peer);
+        Log.info("Node listening on " + port);
+        node.run();
+    }
+
+    //Connects now and again whenever the connection is lost.
+    public void addPeer(InetSocketAddress address) {
+        execute(() -> {
+            seeds.add(address);
+            connect(address);
+        });
+    }
+
+    //Gossips a locally created transaction; safe to call from any thread.
+    public void submit(Transaction transaction) {
+        execute(() -> acceptTransaction(transaction, null));
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    public void run() throws IOException {
+        while (running) {
+            selector.select(200);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else if (key.isConnectable()) finishConnect(key);
+                    else {
+                        if (key.isReadable()) read(key);
+                        if (key.isValid() && key.isWritable()) write(key);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.info("Peer dropped: " + e);
+                    disconnect((Peer) key.attachment());
+                }
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+            tick();
+        }
+        for (Peer peer : new ArrayList<>(peers)) disconnect(peer);
+        server.close();
+        selector.close();
+    }
+
+    //Stops run() after its current pass.
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        if (now >= nextReconnect) {
+            nextReconnect = now + RECONNECT_MS;
+            for (InetSocketAddress seed : seeds) {
+                boolean connected = false;
+                for (Peer peer : peers) connected |= seed.equals(peer.seed);
+                if (!connected) connect(seed);
+            }
+        }
+        if (syncPeer != null && now - syncStarted > SYNC_TIMEOUT_MS) {
+            Log.info("Sync timed out");
+            resetSync();
+        }
+        if (syncPeer == null) {
+            Peer best = null;
+            for (Peer peer : peers) {
+                //A taller branch already in the tree has less work than ours.
+                if (peer.height > height() && !Blockchain.tree.contains(peer.tip)
+                        && (best == null || peer.height > best.height)) best = peer;
+            }
+            if (best != null) startSync(best);
+        }
+        if (mineInterval > 0 && now >= nextMine && syncPeer == null) {
+            nextMine = now + mineInterval;
+            mine();
+        }
+    }
+
+    private void mine() {
+        if (Blockchain.blockchain.isEmpty()) {
+            //The block tree has a single root, so a node with peers waits for their genesis block.
+            if (!seeds.isEmpty()) return;
+            Wallet coinbase = new Wallet();
+            Transaction genesisTransaction = new Transaction(coinbase.publicKey, wallet.publicKey, Amount.of(1000), null);
+            genesisTransaction.generateSignature(coinbase.privateKey);
+            genesisTransaction.transactionId = "0";
+            genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.reciepient, genesisTransaction.value, genesisTransaction.transactionId));
+            Blockchain.genesisTransaction = genesisTransaction;
+            Blockchain.UTXOs.add(genesisTransaction.outputs.get(0));
+            Block genesis = new Block("0");
+            genesis.addTransaction(genesisTransaction);
+            Blockchain.addBlock(genesis);
+            announce(genesis);
+            return;
+        }
+
+        //Keep some traffic going so there is something to gossip.
+        Transaction payment = wallet.sendFunds(new Wallet().publicKey, Amount.of(1));
+        if (payment != null) acceptTransaction(payment, null);
+
+        Block block = Blockchain.mempool.buildTemplate(tip().hash, MAX_TEMPLATE);
+        Blockchain.addBlock(block);
+        Log.info(() -> "Mined block " + (height() - 1) + " with " + block.transactions.size() + " transactions: " + block.hash);
+        announce(block);
+    }
+
+    private void announce(Block block) {
+        seenBlocks.add(block.hash);
+        broadcast(BLOCK, blockPayload(height() - 1, block), null);
+    }
+
+    private void acceptTransaction(Transaction transaction, Peer source) {
+        String key = StringUtil.toHex(transaction.signature);
+        if (!seenTransactions.add(key)) return;
+        byte[] payload = encode(out -> BlockCodec.writeTransaction(out, transaction));
+        Blockchain.mempool.submit(transaction).thenAccept(admitted -> {
+            if (admitted) execute(() -> broadcast(TX, payload, source));
+        });
+    }
+
+    //---- messages
+
+    private void handle(Peer peer, byte type, ByteBuffer in) throws IOException {
+        switch (type) {
+            case HELLO: {
+                peer.height = in.getInt();
+                peer.tip = BlockCodec.readId(in);
+                break;
+            }
+            case TX: {
+                acceptTransaction(BlockCodec.readTransaction(in), peer);
+                break;
+            }
+            case BLOCK: {
+                int blockHeight = in.getInt();
+                Block block = BlockCodec.decode(in);
+                if (!seenBlocks.add(block.hash)) break;
+                if (blockHeight + 1 > peer.height) {
+                    peer.height = blockHeight + 1;
+                    peer.tip = block.hash;
+                }
+                //Side branches and orphans are kept in the block tree; only a new tip is relayed.
+                if (Blockchain.acceptBlocks(Collections.singletonList(block))) {
+                    Log.info(() -> "Accepted block " + (height() - 1) + ": " + tip().hash);
+                    broadcast(BLOCK, blockPayload(blockHeight, block), peer);
+                }
+                break;
+            }
+            case GET_HEADERS: {
+                int from = in.getInt();
+                if (from < 0) throw new IOException("Bad header request from " + from);
+                int to = (int) Math.min(height(), (long) from + MAX_HEADERS);
+                send(peer, HEADERS, encode(out -> {
+                    out.writeInt(from);
+                    out.writeInt(Math.max(0, to - from));
+                    for (int h = from; h < to; h++) {
+                        byte[] header = BlockCodec.encodeHeader(Blockchain.blockchain.get(h));
+                        out.write(header);
+                    }
+                }));
+                break;
+            }
+            case HEADERS: {
+                int from = in.getInt();
+                int count = BlockCodec.readCount(in, BlockCodec.MIN_BLOCK_BYTES);
+                List<Block> headers = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) headers.add(BlockCodec.decode(in));
+                if (peer == syncPeer && from == syncFrom && syncHeaders == null) onHeaders(from, headers);
+                break;
+            }
+            case GET_BLOCKS: {
+                int from = in.getInt();
+                if (from < 0) throw new IOException("Bad block request from " + from);
+                //Sync asks for at most BODY_CHUNK bodies at a time.
+                int to = (int) Math.min(Math.min(height(), in.getInt()), (long) from + BODY_CHUNK);
+                for (int h = from; h < to; h++) {
+                    send(peer, BODY, blockPayload(h, Blockchain.blockchain.get(h)));
+                }
+                break;
+            }
+            case BODY: {
+                int blockHeight = in.getInt();
+                Block block = BlockCodec.decode(in);
+                if (syncHeaders != null) onBody(peer, blockHeight, block);
+                break;
+            }
+            default:
+                throw new IOException("Unknown message type " + type);
+        }
+    }
+
+    //---- sync
+
+    private void startSync(Peer peer) {
+        syncPeer = peer;
+        syncStarted = System.currentTimeMillis();
+        requestHeaders(Math.max(0, height() - REORG_WINDOW));
+    }
+
+    private void requestHeaders(int from) {
+        syncFrom = from;
+        send(syncPeer, GET_HEADERS, encode(out -> out.writeInt(from)));
+    }
+
+    private void onHeaders(int from, List<Block> headers) {
+        if (headers.isEmpty()) {
+            resetSync();
+            return;
+        }
+        List<Block> chain = Blockchain.blockchain;
+        //Fork is older than the window we asked for.
+        if (from > 0 && (from > chain.size() || !chain.get(from - 1).hash.equals(headers.get(0).previousHash))) {
+            requestHeaders(0);
+            return;
+        }
+
+        List<Block> window = new ArrayList<>(chain.subList(Math.max(0, from - Difficulty.WINDOW), from));
+        for (int i = 0; i < headers.size(); i++) {
+            Block header = headers.get(i);
+            boolean linked = i == 0 || headers.get(i - 1).hash.equals(header.previousHash);
+            boolean mined = from + i == 0 || header.getBits() == Difficulty.nextBits(window)
+                    && Difficulty.meets(header.hash, header.getBits())
+                    && Difficulty.validTimeStamp(header.getTimeStamp(), window);
+            window.add(header);
+            if (window.size() > Difficulty.WINDOW) window.remove(0);
+            if (!linked || !mined || !header.hash.equals(header.calculateHash())) {
+                Log.info("Peer sent invalid headers");
+                disconnect(syncPeer);
+                return;
+            }
+        }
+
+        int fork = from;
+        while (fork - from < headers.size() && fork < chain.size()
+                && chain.get(fork).hash.equals(headers.get(fork - from).hash)) {
+            fork++;
+        }
+        int candidateHeight = from + headers.size();
+        if (candidateHeight <= chain.size()) {
+            resetSync();
+            return;
+        }
+
+        syncFork = fork;
+        syncHeaders = new ArrayList<>(headers.subList(fork - from, headers.size()));
+        syncBodies = new HashMap<>();
+        List<Peer> sources = new ArrayList<>();
+        for (Peer peer : peers) {
+            if (peer == syncPeer || peer.height >= candidateHeight) sources.add(peer);
+        }
+        int next = 0;
+        for (int h = fork; h < candidateHeight; h += BODY_CHUNK) {
+            int start = h;
+            int end = Math.min(candidateHeight, h + BODY_CHUNK);
+            Peer source = sources.get(next++ % sources.size());
+            send(source, GET_BLOCKS, encode(out -> {
+                out.writeInt(start);
+                out.writeInt(end);
+            }));
+        }
+    }
+
+    private void onBody(Peer peer, int blockHeight, Block block) {
+        int index = blockHeight - syncFork;
+        if (index < 0 || index >= syncHeaders.size() || syncBodies.containsKey(blockHeight)) return;
+        if (!block.hash.equals(syncHeaders.get(index).hash)) {
+            //That peer is on another branch; ask the peer the headers came from.
+            if (peer != syncPeer) {
+                send(syncPeer, GET_BLOCKS, encode(out -> {
+                    out.writeInt(blockHeight);
+                    out.writeInt(blockHeight + 1);
+                }));
+            }
+            return;
+        }
+        syncBodies.put(blockHeight, block);
+        if (syncBodies.size() < syncHeaders.size()) return;
+
+        List<Block> bodies = new ArrayList<>(syncHeaders.size());
+        for (int h = syncFork; h < syncFork + syncHeaders.size(); h++) bodies.add(syncBodies.get(h));
+        if (Blockchain.acceptBlocks(bodies)) {
+            Log.info(() -> "Synced to height " + height() + ", tip " + tip().hash);
+            hello(null);
+        } else {
+            BlockTree.Entry last = Blockchain.tree.get(bodies.get(bodies.size() - 1).hash);
+            if (last == null || last.isInvalid()) {
+                Log.info("Peer chain failed validation");
+                disconnect(syncPeer);
+            }
+        }
+        resetSync();
+    }
+
+    private void resetSync() {
+        syncPeer = null;
+        syncFrom = -1;
+        syncHeaders = null;
+        syncBodies = null;
+    }
+
+    //---- connections
+
+    private void connect(InetSocketAddress address) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            Peer peer = new Peer(channel);
+            peer.seed = address;
+            peers.add(peer);
+            if (channel.connect(address)) {
+                channel.register(selector, SelectionKey.OP_READ, peer);
+                hello(peer);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, peer);
+            }
+        } catch (IOException e) {
+            Log.info("Connect to " + address + " failed: " + e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        Peer peer = new Peer(channel);
+        peers.add(peer);
+        channel.register(selector, SelectionKey.OP_READ, peer);
+        hello(peer);
+    }
+
+    private void finishConnect(SelectionKey key) throws IOException {
+        Peer peer = (Peer) key.attachment();
+        peer.channel.finishConnect();
+        key.interestOps(interest(peer));
+        hello(peer);
+    }
+
+    //To one peer, or to all when peer is null.
+    private void hello(Peer peer) {
+        byte[] payload = encode(out -> {
+            out.writeInt(height());
+            BlockCodec.writeId(out, Blockchain.blockchain.isEmpty() ? null : tip().hash);
+        });
+        if (peer != null) send(peer, HELLO, payload);
+        else broadcast(HELLO, payload, null);
+    }
+
+    private void disconnect(Peer peer) {
+        if (peer == null || !peers.remove(peer)) return;
+        if (peer == syncPeer) resetSync();
+        try {
+            peer.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Peer peer = (Peer) key.attachment();
+        if (peer.channel.read(peer.in) < 0) {
+            disconnect(peer);
+            return;
+        }
+        handleFrames(peer);
+    }
+
+    //Handles the complete frames in peer.in, stopping early while the peer has too much queued to send.
+    private void handleFrames(Peer peer) throws IOException {
+        peer.in.flip();
+        while (peer.in.remaining() >= 4 && peer.queuedBytes <= MAX_QUEUED_BYTES) {
+            int length = peer.in.getInt(peer.in.position());
+            if (length < 1 || length > MAX_FRAME) throw new IOException("Bad frame length " + length);
+            if (peer.in.remaining() < 4 + length) {
+                if (4 + length > peer.in.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                    larger.put(peer.in);
+                    peer.in = larger;
+                    return;
+                }
+                break;
+            }
+            peer.in.getInt();
+            byte type = peer.in.get();
+            ByteBuffer frame = peer.in.slice();
+            frame.limit(length - 1);
+            peer.in.position(peer.in.position() + length - 1);
+            handle(peer, type, frame);
+            if (!peers.contains(peer)) return;
+        }
+        peer.in.compact();
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Peer peer = (Peer) key.attachment();
+        boolean throttled = peer.queuedBytes > MAX_QUEUED_BYTES;
+        while (!peer.out.isEmpty()) {
+            ByteBuffer buffer = peer.out.peek();
+            peer.channel.write(buffer);
+            if (buffer.hasRemaining()) break;
+            peer.out.poll();
+            peer.queuedBytes -= buffer.limit();
+        }
+        key.interestOps(interest(peer));
+        //Frames left unread while throttled may already be buffered, with nothing new to wake read.
+        if (throttled && peer.queuedBytes <= MAX_QUEUED_BYTES) handleFrames(peer);
+    }
+
+    private void send(Peer peer, byte type, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(5 + payload.length);
+        frame.putInt(1 + payload.length).put(type).put(payload).flip();
+        peer.out.add(frame);
+        peer.queuedBytes += frame.limit();
+        SelectionKey key = peer.channel.keyFor(selector);
+        if (key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_CONNECT) == 0) {
+            key.interestOps(interest(peer));
+        }
+    }
+
+    //Reads only while the peer keeps up with what is sent to it.
+    private static int interest(Peer peer) {
+        int ops = peer.queuedBytes > MAX_QUEUED_BYTES ? 0 : SelectionKey.OP_READ;
+        return peer.out.isEmpty() ? ops : ops | SelectionKey.OP_WRITE;
+    }
+
+    private void broadcast(byte type, byte[] payload, Peer except) {
+        for (Peer peer : peers) {
+            if (peer != except && peer.channel.isConnected()) send(peer, type, payload);
+        }
+    }
+
+    //---- helpers
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(Writer writer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writer.write(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] blockPayload(int blockHeight, Block block) {
+        return encode(out -> {
+            out.writeInt(blockHeight);
+            out.write(BlockCodec.encode(block));
+        });
+    }
+
+    private static int height() {
+        return Blockchain.blockchain.size();
+    }
+
+    private static Block tip() {
+        return Blockchain.blockchain.get(Blockchain.blockchain.size() - 1);
+    }
+
+    private static Set<String> seenSet() {
+        return Collections.newSetFromMap(new LinkedHashMap<String,Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+                return size() > SEEN_LIMIT;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class SignatureVerifier {
+
+    private static final int BATCH = 16;
+
+    private final ForkJoinPool pool;
+
+    public SignatureVerifier(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    //Result i is the signature check of block.transactions.get(i).
+    public boolean[] verifyBlock(Block block) {
+        return verifyTransactions(block.transactions);
+    }
+
+    //One result array per block in [from, to), all checked in a single fork-join pass.
+    public List<boolean[]> verifyBlocks(List<Block> blocks, int from, int to) {
+        List<Transaction> all = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            all.addAll(blocks.get(i).transactions);
+        }
+        boolean[] flat = verifyTransactions(all);
+
+        List<boolean[]> results = new ArrayList<>(to - from);
+        int offset = 0;
+        for (int i = from; i < to; i++) {
+            boolean[] block = new boolean[blocks.get(i).transactions.size()];
+            System.arraycopy(flat, offset, block, 0, block.length);
+            offset += block.length;
+            results.add(block);
+        }
+        return results;
+    }
+
+    public boolean[] verifyTransactions(List<Transaction> transactions) {
+        boolean[] results = new boolean[transactions.size()];
+        if (results.length <= BATCH) {
+            new VerifyRange(transactions, results, 0, results.length).compute();
+        } else {
+            pool.invoke(new VerifyRange(transactions, results, 0, results.length));
+        }
+        return results;
+    }
+
+    private static class VerifyRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Transaction> transactions;
+        private final boolean[] results;
+        private final int from;
+        private final int to;
+
+        VerifyRange(List<Transaction> transactions, boolean[] results, int from, int to) {
+            this.transactions = transactions;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                for (int i = from; i < to; i++) {
+                    results[i] = transactions.get(i).verifySignature();
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new VerifyRange(transactions, results, from, mid),
+                    new VerifyRange(transactions, results, mid, to));
+        }
+    }
+
+}
@@ -1,6 +1,8 @@
 import java.security.PublicKey;
 import java.util.Map;
 
+//State is a map of long slots. Calls read and write it only through their ContractContext,
+//which meters gas and stages writes; ContractRuntime commits them once per block via write.
 public abstract class SmartContract {
 
     protected PublicKey creator;
@@ -13,6 +15,13 @@ public abstract class SmartContract {
         );
     }
 
-    public abstract boolean execute(Transaction tx, Map<String, TransactionOutput> UTXOs);
+    //Runs the call carried by tx. Returning false discards everything it stored.
+    public abstract boolean execute(Transaction tx, ContractContext context);
+
+    //Committed value of a slot, 0 if it was never written.
+    protected abstract long read(long key);
+
+    //Applies the committed writes of one block together.
+    protected abstract void write(Map<Long,Long> writes);
 
 }
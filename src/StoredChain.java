@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+//The active chain kept in a BlockStore. Adding and removing the tip write through to the store;
+//only the newest RECENT to 2 * RECENT blocks stay decoded in memory, older ones are read back on access.
+public class StoredChain extends AbstractList<Block> implements RandomAccess {
+
+    public static final int RECENT = 256;
+
+    private final BlockStore store;
+    private final List<Block> recent = new ArrayList<>();
+    //Height of recent.get(0).
+    private int recentBase;
+
+    public StoredChain(BlockStore store) {
+        this.store = store;
+        this.recentBase = store.height();
+    }
+
+    @Override
+    public Block get(int index) {
+        if (index >= recentBase && index < recentBase + recent.size()) return recent.get(index - recentBase);
+        try {
+            return store.get(index);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return store.height();
+    }
+
+    @Override
+    public boolean add(Block block) {
+        try {
+            store.append(block);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        recent.add(block);
+        if (recent.size() > 2 * RECENT) {
+            recent.subList(0, RECENT).clear();
+            recentBase += RECENT;
+        }
+        modCount++;
+        return true;
+    }
+
+    //Only the tip can be removed.
+    @Override
+    public Block remove(int index) {
+        if (index != size() - 1) throw new UnsupportedOperationException("Only the tip can be removed");
+        Block block = get(index);
+        try {
+            store.truncate(index);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (index >= recentBase) recent.remove(index - recentBase);
+        else recentBase = index;
+        modCount++;
+        return block;
+    }
+
+}
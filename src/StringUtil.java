@@ -1,50 +1,66 @@
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.List;
 
 public class StringUtil {
 
-    public static String applySha256(String input){
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(input.getBytes("UTF-8"));
-            StringBuffer hexString = new StringBuffer();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 
-            for (int i = 0; i < hash.length; i++){
-                String hex = Integer.toHexString(0xff & hash[i]);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
+    //Gson instances are thread-safe, so one is shared.
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
-            return hexString.toString();
-        } catch (Exception e){
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
+    });
+
+    public static String applySha256(String input){
+        return toHex(sha256(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static byte[] sha256(byte[] input) {
+        return SHA256.get().digest(input);
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >>> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
     }
 
+    //Signature objects are not thread-safe, so each thread keeps its own.
+    private static final ThreadLocal<Signature> ECDSA = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("ECDSA", "BC");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
     public static byte[] applyECDSASig(PrivateKey privateKey, String input){
-        Signature dsa;
-        byte[] output = new byte[0];
         try{
-            dsa = Signature.getInstance("ECDSA", "BC");
+            Signature dsa = ECDSA.get();
             dsa.initSign(privateKey);
-            byte[] strByte = input.getBytes();
-            dsa.update(strByte);
-            byte[] realSig = dsa.sign();
-            output = realSig;
+            dsa.update(input.getBytes());
+            return dsa.sign();
         } catch (Exception e){
             throw new RuntimeException(e);
         }
-        return output;
     }
 
     public static boolean verifyECDSASig(PublicKey publicKey, String data, byte[] signature){
         try {
-            Signature ecdsaVerify = Signature.getInstance("ECDSA", "BC");
+            Signature ecdsaVerify = ECDSA.get();
             ecdsaVerify.initVerify(publicKey);
             ecdsaVerify.update(data.getBytes());
             return ecdsaVerify.verify(signature);
@@ -54,11 +70,24 @@ public class StringUtil {
     }
 
     public static String getStringFromKey(Key key){
+        if (key instanceof PublicKey) {
+            return KeyRegistry.of((PublicKey) key).base64;
+        }
         return Base64.getEncoder().encodeToString(key.getEncoded());
     }
 
     public static String getJson(Object o) {
-        return new GsonBuilder().setPrettyPrinting().create().toJson(o);
+        return GSON.toJson(o);
+    }
+
+    //Whether id looks like applySha256 output: 64 lowercase hex digits.
+    public static boolean isHash(String id) {
+        if (id == null || id.length() != 64) return false;
+        for (int i = 0; i < 64; i++) {
+            char c = id.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) return false;
+        }
+        return true;
     }
 
     public static String getDificultyString(int difficulty) {
@@ -66,25 +95,8 @@ public class StringUtil {
     }
 
     public static String getMerkleRoot(ArrayList<Transaction> transactions) {
-        int count = transactions.size();
-
-        List<String> previousTreeLayer = new ArrayList<String>();
-        for(Transaction transaction : transactions) {
-            previousTreeLayer.add(transaction.transactionId);
-        }
-        List<String> treeLayer = previousTreeLayer;
-
-        while(count > 1) {
-            treeLayer = new ArrayList<String>();
-            for(int i=1; i < previousTreeLayer.size(); i+=2) {
-                treeLayer.add(applySha256(previousTreeLayer.get(i-1) + previousTreeLayer.get(i)));
-            }
-            count = treeLayer.size();
-            previousTreeLayer = treeLayer;
-        }
-
-        String merkleRoot = (treeLayer.size() == 1) ? treeLayer.get(0) : "";
-        return merkleRoot;
+        String merkleRoot = MerkleTree.build(transactions).getRootHex();
+        return merkleRoot == null ? "" : merkleRoot;
     }
 
 }
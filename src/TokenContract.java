@@ -1,64 +1,299 @@
 import java.security.PublicKey;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+//ERC-20 style ledger. Accounts are KeyRegistry ids, balances are Amount units kept in paged arrays,
+//and every account is guarded by one of STRIPES locks.
+//As contract state, slot ~id is the balance of account id, slot (owner << 32 | spender) an allowance,
+//and slot (Long.MIN_VALUE + id) the number of calls account id has made.
+//Calls: "transfer" and "approve" from sender to reciepient, and "transferFrom:<owner key, Base64>"
+//with the sender as spender; the amount is the transaction value. A call must carry the sender's
+//call count as its nonce, so each signed call is applied at most once.
 public class TokenContract extends SmartContract {
 
+    private static final int STRIPES = 256;
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
     private String tokenName;
     private String tokenSymbol;
-    private float totalSupply;
-    private Map<PublicKey, Float> balances;
-    private Map<PublicKey, Map<PublicKey, Float>> allowances;
+    private long totalSupply;
+    private volatile long[][] pages = new long[16][];
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    //Key is owner id in the high half, spender id in the low half; guarded by the owner's stripe.
+    private final ConcurrentHashMap<Long,Long> allowances = new ConcurrentHashMap<>();
+    //Calls made by each account id; guarded by the account's stripe.
+    private final ConcurrentHashMap<Integer,Long> nonces = new ConcurrentHashMap<>();
+
+    //One ERC-20 move; spender is -1 for a plain transfer and the approved account for transferFrom.
+    public static final class Transfer {
+        final int from;
+        final int to;
+        final int spender;
+        final long amount;
+
+        private Transfer(int from, int to, int spender, long amount) {
+            this.from = from;
+            this.to = to;
+            this.spender = spender;
+            this.amount = amount;
+        }
+
+        public static Transfer of(PublicKey sender, PublicKey receiver, long amount) {
+            return new Transfer(KeyRegistry.of(sender).id, KeyRegistry.of(receiver).id, -1, amount);
+        }
+
+        public static Transfer from(PublicKey sender, PublicKey receiver, PublicKey spender, long amount) {
+            return new Transfer(KeyRegistry.of(sender).id, KeyRegistry.of(receiver).id, KeyRegistry.of(spender).id, amount);
+        }
+    }
 
-    public TokenContract(PublicKey creator, String name, String symbol, float supply) {
+    public TokenContract(PublicKey creator, String name, String symbol, long supply) {
         super(creator);
         this.tokenName = name;
         this.tokenSymbol = symbol;
         this.totalSupply = supply;
-        this.balances = new HashMap<>();
-        this.allowances = new HashMap<>();
-        this.balances.put(creator, supply);
+        for (int i = 0; i < STRIPES; i++) locks[i] = new ReentrantLock();
+        int id = KeyRegistry.of(creator).id;
+        page(id)[id & (PAGE_SIZE - 1)] = totalSupply;
     }
 
-    public float balanceOf(PublicKey owner) {
-        return balances.getOrDefault(owner, 0f);
+    public long balanceOf(PublicKey owner) {
+        int id = KeyRegistry.of(owner).id;
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            return balance(id);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public boolean transfer(PublicKey sender, PublicKey receiver, float amount) {
-        if (balanceOf(sender) >= amount) {
-            balances.put(sender, balanceOf(sender) - amount);
-            balances.put(receiver, balanceOf(receiver) + amount);
-            return true;
-        }
-        return false;
+    //Nonce the sender's next call has to carry.
+    public long nonceOf(PublicKey sender) {
+        return read(nonceKey(KeyRegistry.of(sender).id));
     }
 
-    public boolean approve(PublicKey owner, PublicKey spender, float amount) {
-        allowances.computeIfAbsent(owner, k -> new HashMap<>()).put(spender, amount);
+    public boolean transfer(PublicKey sender, PublicKey receiver, long amount) {
+        return transferBatch(List.of(Transfer.of(sender, receiver, amount)));
+    }
+
+    public boolean approve(PublicKey owner, PublicKey spender, long amount) {
+        int id = KeyRegistry.of(owner).id;
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            allowances.put(pair(id, KeyRegistry.of(spender).id), amount);
+        } finally {
+            lock.unlock();
+        }
         return true;
     }
 
-    public float allowance(PublicKey owner, PublicKey spender) {
-        return allowances.getOrDefault(owner, new HashMap<>()).getOrDefault(spender, 0f);
+    public long allowance(PublicKey owner, PublicKey spender) {
+        return allowances.getOrDefault(pair(KeyRegistry.of(owner).id, KeyRegistry.of(spender).id), 0L);
     }
 
-    public boolean transferFrom(PublicKey sender, PublicKey receiver, PublicKey spender, float amount) {
-        if (allowance(sender, spender) >= amount && balanceOf(sender) >= amount) {
-            balances.put(sender, balanceOf(sender) - amount);
-            balances.put(receiver, balanceOf(receiver) + amount);
-            allowances.get(sender).put(spender, allowance(sender, spender) - amount);
+    public boolean transferFrom(PublicKey sender, PublicKey receiver, PublicKey spender, long amount) {
+        return transferBatch(List.of(Transfer.from(sender, receiver, spender, amount)));
+    }
+
+    //Applies the transfers in order; if any one fails nothing is changed and false is returned.
+    //Only the stripes the batch touches are locked, so batches over disjoint accounts run in parallel.
+    public boolean transferBatch(List<Transfer> transfers) {
+        int[] stripes = new int[transfers.size() * 2];
+        int n = 0;
+        for (Transfer t : transfers) {
+            stripes[n++] = t.from;
+            stripes[n++] = t.to;
+        }
+
+        int locked = lockAll(stripes, n);
+        try {
+            int applied = 0;
+            for (Transfer t : transfers) {
+                if (!apply(t)) break;
+                applied++;
+            }
+            if (applied == transfers.size()) return true;
+
+            for (int i = applied - 1; i >= 0; i--) {
+                undo(transfers.get(i));
+            }
+            return false;
+        } finally {
+            unlockAll(stripes, locked);
+        }
+    }
+
+    @Override
+    public boolean execute(Transaction tx, ContractContext context) {
+        String call = tx.getContractCallData();
+        int sender = KeyRegistry.of(tx.sender).id;
+        int receiver = KeyRegistry.of(tx.reciepient).id;
+        long amount = tx.value;
+        if (call == null || amount < 0) return false;
+        long nonce = context.load(nonceKey(sender));
+        if (tx.getContractNonce() != nonce) return false;
+        context.store(nonceKey(sender), nonce + 1);
+
+        if (call.equals("transfer")) {
+            return move(context, sender, receiver, amount);
+        }
+        if (call.equals("approve")) {
+            context.store(pair(sender, receiver), amount);
+            return true;
+        }
+        if (call.startsWith("transferFrom:")) {
+            PublicKey ownerKey = KeyRegistry.decode(Base64.getDecoder().decode(call.substring("transferFrom:".length())));
+            int owner = KeyRegistry.of(ownerKey).id;
+            long allowed = context.load(pair(owner, sender));
+            if (allowed < amount || !move(context, owner, receiver, amount)) return false;
+            context.store(pair(owner, sender), allowed - amount);
             return true;
         }
         return false;
     }
 
+    private static boolean move(ContractContext context, int from, int to, long amount) {
+        long balance = context.load(~(long) from);
+        if (balance < amount) return false;
+        context.store(~(long) from, balance - amount);
+        context.store(~(long) to, context.load(~(long) to) + amount);
+        return true;
+    }
+
+    @Override
+    protected long read(long key) {
+        int id = account(key);
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            if (key < Integer.MIN_VALUE) return nonces.getOrDefault(id, 0L);
+            return key < 0 ? balance(id) : allowances.getOrDefault(key, 0L);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
-    public boolean execute(Transaction tx, Map<String, TransactionOutput> UTXOs) {
+    protected void write(Map<Long,Long> writes) {
+        int[] stripes = new int[writes.size()];
+        int n = 0;
+        for (long key : writes.keySet()) {
+            stripes[n++] = account(key);
+        }
+
+        int locked = lockAll(stripes, n);
+        try {
+            for (Map.Entry<Long,Long> write : writes.entrySet()) {
+                long key = write.getKey();
+                if (key < Integer.MIN_VALUE) {
+                    nonces.put(account(key), write.getValue());
+                } else if (key < 0) {
+                    int id = (int) ~key;
+                    page(id)[id & (PAGE_SIZE - 1)] = write.getValue();
+                } else {
+                    allowances.put(key, write.getValue());
+                }
+            }
+        } finally {
+            unlockAll(stripes, locked);
+        }
+    }
+
+    //Locks the stripes of the first n account ids in ascending order, leaving the distinct
+    //stripes at the front of the array; returns how many were locked.
+    private int lockAll(int[] ids, int n) {
+        for (int i = 0; i < n; i++) ids[i] &= STRIPES - 1;
+        Arrays.sort(ids, 0, n);
+        int locked = 0;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && ids[i] == ids[i - 1]) continue;
+            locks[ids[i]].lock();
+            ids[locked++] = ids[i];
+        }
+        return locked;
+    }
+
+    private void unlockAll(int[] stripes, int locked) {
+        for (int i = locked - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    private boolean apply(Transfer t) {
+        if (t.amount < 0 || balance(t.from) < t.amount) return false;
+        if (t.spender >= 0) {
+            long key = pair(t.from, t.spender);
+            long allowed = allowances.getOrDefault(key, 0L);
+            if (allowed < t.amount) return false;
+            allowances.put(key, allowed - t.amount);
+        }
+        move(t.from, t.to, t.amount);
         return true;
     }
 
+    private void undo(Transfer t) {
+        move(t.to, t.from, t.amount);
+        if (t.spender >= 0) {
+            allowances.merge(pair(t.from, t.spender), t.amount, Long::sum);
+        }
+    }
+
+    private void move(int from, int to, long amount) {
+        page(from)[from & (PAGE_SIZE - 1)] -= amount;
+        page(to)[to & (PAGE_SIZE - 1)] += amount;
+    }
+
+    private long balance(int id) {
+        long[][] dir = pages;
+        int p = id >>> PAGE_BITS;
+        if (p >= dir.length || dir[p] == null) return 0;
+        return dir[p][id & (PAGE_SIZE - 1)];
+    }
+
+    private long[] page(int id) {
+        int p = id >>> PAGE_BITS;
+        long[][] dir = pages;
+        if (p < dir.length && dir[p] != null) return dir[p];
+        synchronized (this) {
+            dir = pages;
+            if (p >= dir.length) {
+                dir = Arrays.copyOf(dir, Math.max(dir.length * 2, p + 1));
+            }
+            if (dir[p] == null) {
+                dir[p] = new long[PAGE_SIZE];
+            }
+            pages = dir;
+            return dir[p];
+        }
+    }
+
+    private ReentrantLock lock(int id) {
+        return locks[id & (STRIPES - 1)];
+    }
+
+    private static long nonceKey(int id) {
+        return Long.MIN_VALUE + id;
+    }
+
+    //Account whose stripe guards a slot.
+    private static int account(long key) {
+        if (key < Integer.MIN_VALUE) return (int) (key - Long.MIN_VALUE);
+        return key < 0 ? (int) ~key : (int) (key >>> 32);
+    }
+
+    private static long pair(int owner, int spender) {
+        return ((long) owner << 32) | (spender & 0xffffffffL);
+    }
+
     public String getName() { return tokenName; }
     public String getSymbol() { return tokenSymbol; }
-    public float getTotalSupply() { return totalSupply; }
+    public long getTotalSupply() { return totalSupply; }
 
 }
@@ -7,7 +7,7 @@ public class Transaction {
     public String transactionId;
     public PublicKey sender;
     public PublicKey reciepient;
-    public float value;
+    public long value;
     public byte[] signature;
 
     public ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
@@ -15,95 +15,173 @@ public class Transaction {
 
     private static int sequence = 0;
 
-    private TokenContract tokenContract;
+    //Set on contract calls: the deployed contract in Blockchain.contracts and what to call on it.
+    private String contractAddress;
     private String contractCallData;
+    //How many calls the sender made to the contract before this one; signed, so a call applies only once.
+    private long contractNonce;
 
-    public Transaction(PublicKey from, PublicKey to, float value,  ArrayList<TransactionInput> inputs) {
+    public Transaction(PublicKey from, PublicKey to, long value,  ArrayList<TransactionInput> inputs) {
         this.sender = from;
         this.reciepient = to;
         this.value = value;
         this.inputs = inputs;
     }
 
-    public Transaction(PublicKey from, PublicKey to, float value, ArrayList<TransactionInput> inputs, TokenContract contract) {
+    public Transaction(PublicKey from, PublicKey to, long value, ArrayList<TransactionInput> inputs, TokenContract contract) {
+        this(from, to, value, inputs, contract.contractAddress, "transfer", contract.nonceOf(from));
+    }
+
+    public Transaction(PublicKey from, PublicKey to, long value, ArrayList<TransactionInput> inputs,
+                       String contractAddress, String contractCallData, long contractNonce) {
         this.sender = from;
         this.reciepient = to;
         this.value = value;
         this.inputs = inputs;
-        this.tokenContract = contract;
+        this.contractAddress = contractAddress;
+        this.contractCallData = contractCallData;
+        this.contractNonce = contractNonce;
+        //Calls spend no outputs, so they are identified by what is signed; the nonce makes that unique.
+        if (contractAddress != null && from != null) transactionId = StringUtil.applySha256(getSignatureData());
     }
 
     public boolean processTransaction() {
+        return processTransaction(Blockchain.UTXOs);
+    }
 
-        if (tokenContract != null) {
-            return tokenContract.transfer(sender, reciepient, value);
+    public boolean processTransaction(UTXOView utxos) {
+
+        if (isContractCall()) {
+            return Blockchain.runtime.execute(this);
         }
 
         if(verifySignature() == false) {
-            System.out.println("#Transaction Signature failed to verify");
+            Log.info("#Transaction Signature failed to verify");
             return false;
         }
 
         for(TransactionInput i : inputs) {
-            i.UTXO = Blockchain.UTXOs.get(i.transactionOutputId);
+            i.UTXO = utxos.get(i.transactionOutputId);
         }
 
+        if(!hasMinimumInputs()) {
+            return false;
+        }
+
+        createOutputs(reserveSequence(1));
+        applyTo(utxos);
+        return true;
+    }
+
+    public boolean isContractCall() {
+        return contractAddress != null;
+    }
+
+    public String getContractAddress() {
+        return contractAddress;
+    }
+
+    public String getContractCallData() {
+        return contractCallData;
+    }
+
+    public long getContractNonce() {
+        return contractNonce;
+    }
+
+    public boolean hasMinimumInputs() {
         if(getInputsValue() < Blockchain.minimumTransaction) {
-            System.out.println("Transaction Inputs too small: " + getInputsValue());
-            System.out.println("Please enter the amount greater than " + Blockchain.minimumTransaction);
+            Log.info(() -> "Transaction Inputs too small: " + Amount.format(getInputsValue()));
+            Log.info(() -> "Please enter the amount greater than " + Amount.format(Blockchain.minimumTransaction));
+            return false;
+        }
+        if(value <= 0 || value > getInputsValue()) {
+            Log.info("#Transaction value is not covered by its inputs");
             return false;
         }
+        return true;
+    }
 
-        float leftOver = getInputsValue() - value;
-        transactionId = calculateHash();
+    //One payment output and at most one change output, each positive, adding up to the inputs exactly.
+    public boolean isBalanced() {
+        if(outputs.isEmpty() || outputs.size() > 2) return false;
+        for(TransactionOutput o : outputs) {
+            if(o.value <= 0) return false;
+        }
+        try {
+            return getInputsValue() == getOutputsValue();
+        } catch(ArithmeticException e) {
+            return false;
+        }
+    }
+
+    //Sets transactionId from the given sequence number and creates the payment output, plus change
+    //when the inputs add up to more than the value.
+    public void createOutputs(int sequence) {
+        long leftOver = getInputsValue() - value;
+        transactionId = calculateHash(sequence);
         outputs.add(new TransactionOutput( this.reciepient, value,transactionId));
-        outputs.add(new TransactionOutput( this.sender, leftOver,transactionId));
+        if (leftOver != 0) outputs.add(new TransactionOutput( this.sender, leftOver,transactionId));
+    }
 
+    public void applyTo(UTXOView utxos) {
         for(TransactionOutput o : outputs) {
-            Blockchain.UTXOs.put(o.id , o);
+            utxos.add(o);
         }
 
         for(TransactionInput i : inputs) {
             if(i.UTXO == null) continue;
-            Blockchain.UTXOs.remove(i.UTXO.id);
+            utxos.remove(i.UTXO.id);
         }
 
-        return true;
+        Metrics.transactionProcessed();
     }
 
-    public float getInputsValue() {
-        float total = 0;
+    //First of count consecutive sequence numbers for transaction ids.
+    public static synchronized int reserveSequence(int count) {
+        int first = sequence + 1;
+        sequence += count;
+        return first;
+    }
+
+    public long getInputsValue() {
+        long total = 0;
         for(TransactionInput i : inputs) {
             if(i.UTXO == null) continue;
-            total += i.UTXO.value;
+            total = Math.addExact(total, i.UTXO.value);
         }
         return total;
     }
 
     public void generateSignature(PrivateKey privateKey) {
-        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(reciepient) + Float.toString(value)	;
-        signature = StringUtil.applyECDSASig(privateKey,data);
+        signature = StringUtil.applyECDSASig(privateKey, getSignatureData());
     }
 
     public boolean verifySignature() {
-        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(reciepient) + Float.toString(value)	;
-        return StringUtil.verifyECDSASig(sender, data, signature);
+        long start = System.nanoTime();
+        boolean valid = StringUtil.verifyECDSASig(sender, getSignatureData(), signature);
+        Metrics.signatureVerifyNanos.record(System.nanoTime() - start);
+        return valid;
+    }
+
+    public String getSignatureData() {
+        String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(reciepient) + Long.toString(value);
+        return isContractCall() ? data + contractAddress + contractCallData + contractNonce : data;
     }
 
-    public float getOutputsValue() {
-        float total = 0;
+    public long getOutputsValue() {
+        long total = 0;
         for(TransactionOutput o : outputs) {
-            total += o.value;
+            total = Math.addExact(total, o.value);
         }
         return total;
     }
 
-    private String calculateHash() {
-        sequence++;
+    private String calculateHash(int sequence) {
         return StringUtil.applySha256(
                 StringUtil.getStringFromKey(sender) +
                         StringUtil.getStringFromKey(reciepient) +
-                        Float.toString(value) + sequence
+                        Long.toString(value) + sequence
         );
     }
 }
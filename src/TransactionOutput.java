@@ -3,18 +3,25 @@ import java.security.PublicKey;
 public class TransactionOutput {
     public String id;
     public PublicKey reciepient;
-    public float value;
+    public long value;
     public String parentTransactionId;
 
-    public TransactionOutput(PublicKey reciepient, float value, String parentTransactionId) {
+    public TransactionOutput(PublicKey reciepient, long value, String parentTransactionId) {
+        this.reciepient = reciepient;
+        this.value = value;
+        this.parentTransactionId = parentTransactionId;
+        this.id = StringUtil.applySha256(StringUtil.getStringFromKey(reciepient)+Long.toString(value)+parentTransactionId);
+    }
+
+    public TransactionOutput(String id, PublicKey reciepient, long value, String parentTransactionId) {
+        this.id = id;
         this.reciepient = reciepient;
         this.value = value;
         this.parentTransactionId = parentTransactionId;
-        this.id = StringUtil.applySha256(StringUtil.getStringFromKey(reciepient)+Float.toString(value)+parentTransactionId);
     }
 
     public boolean isMine(PublicKey publicKey) {
-        return (publicKey == reciepient);
+        return KeyRegistry.same(publicKey, reciepient);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+//Unspent outputs by id, plus a secondary index by recipient with a running balance per owner.
+//Each owner's outputs are kept largest first, which is the order CoinSelector works in.
+public class UTXOSet implements UTXOView {
+
+    public static final Comparator<TransactionOutput> LARGEST_FIRST = Comparator
+            .comparingLong((TransactionOutput o) -> o.value).reversed()
+            .thenComparing(o -> o.id);
+
+    private final ConcurrentHashMap<String,TransactionOutput> outputs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<KeyRegistry.KeyId,Owner> owners = new ConcurrentHashMap<>();
+    private volatile Listener listener;
+
+    public interface Listener {
+        void added(TransactionOutput output);
+        void removed(TransactionOutput output);
+    }
+
+    public interface OwnerVisitor {
+        void visit(KeyRegistry.KeyId key, long balance, int outputs);
+    }
+
+    private static class Owner {
+        final ConcurrentSkipListSet<TransactionOutput> outputs = new ConcurrentSkipListSet<>(LARGEST_FIRST);
+        long balance;
+        int count;
+    }
+
+    @Override
+    public TransactionOutput get(String id) {
+        return outputs.get(id);
+    }
+
+    public boolean contains(String id) {
+        return outputs.containsKey(id);
+    }
+
+    @Override
+    public void add(TransactionOutput output) {
+        TransactionOutput replaced = outputs.put(output.id, output);
+        if (replaced != null) unindex(replaced);
+        Owner owner = owners.computeIfAbsent(KeyRegistry.of(output.reciepient), k -> new Owner());
+        synchronized (owner) {
+            if (owner.outputs.add(output)) {
+                owner.balance += output.value;
+                owner.count++;
+            }
+        }
+        Listener l = listener;
+        if (l != null) l.added(output);
+    }
+
+    @Override
+    public TransactionOutput remove(String id) {
+        TransactionOutput removed = outputs.remove(id);
+        if (removed != null) {
+            unindex(removed);
+            Listener l = listener;
+            if (l != null) l.removed(removed);
+        }
+        return removed;
+    }
+
+    public long getBalance(PublicKey owner) {
+        Owner entry = owners.get(KeyRegistry.of(owner));
+        if (entry == null) return 0;
+        synchronized (entry) {
+            return entry.balance;
+        }
+    }
+
+    //Live view of the owner's outputs, largest first.
+    public Collection<TransactionOutput> getOutputs(PublicKey owner) {
+        Owner entry = owners.get(KeyRegistry.of(owner));
+        if (entry == null) return Collections.emptyList();
+        return Collections.unmodifiableCollection(entry.outputs);
+    }
+
+    //Same outputs, smallest first.
+    public Collection<TransactionOutput> getOutputsSmallestFirst(PublicKey owner) {
+        Owner entry = owners.get(KeyRegistry.of(owner));
+        if (entry == null) return Collections.emptyList();
+        return Collections.unmodifiableCollection(entry.outputs.descendingSet());
+    }
+
+    public int getOutputCount(PublicKey owner) {
+        Owner entry = owners.get(KeyRegistry.of(owner));
+        if (entry == null) return 0;
+        synchronized (entry) {
+            return entry.count;
+        }
+    }
+
+    //Visits every owner's running balance and output count without scanning the outputs. Runs on the
+    //common fork-join pool once there are more than parallelismThreshold owners.
+    public void forEachOwner(long parallelismThreshold, OwnerVisitor visitor) {
+        owners.forEach(parallelismThreshold, (key, owner) -> {
+            long balance;
+            int count;
+            synchronized (owner) {
+                balance = owner.balance;
+                count = owner.count;
+            }
+            visitor.visit(key, balance, count);
+        });
+    }
+
+    public Collection<TransactionOutput> values() {
+        return Collections.unmodifiableCollection(outputs.values());
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return outputs.size();
+    }
+
+    private void unindex(TransactionOutput output) {
+        Owner owner = owners.get(KeyRegistry.of(output.reciepient));
+        if (owner == null) return;
+        synchronized (owner) {
+            if (owner.outputs.remove(output)) {
+                owner.balance -= output.value;
+                owner.count--;
+            }
+        }
+    }
+
+}
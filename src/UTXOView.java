@@ -0,0 +1,10 @@
+//The operations a transaction needs from a UTXO set, so it can also run against a staged view.
+public interface UTXOView {
+
+    TransactionOutput get(String id);
+
+    void add(TransactionOutput output);
+
+    TransactionOutput remove(String id);
+
+}
@@ -0,0 +1,215 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+//Write-ahead journal of UTXO changes per block, plus periodic full snapshots.
+//Startup loads the newest snapshot and replays only the journal records after it.
+public class UtxoJournal implements UTXOSet.Listener, Closeable {
+
+    private static final int SNAPSHOT_MAGIC = 0x55545831;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final int snapshotInterval;
+    private final FileChannel journal;
+
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pending = new DataOutputStream(pendingBytes);
+    private int pendingOps;
+
+    private int height = -1;
+    private String hash;
+
+    public UtxoJournal(Path dir, int snapshotInterval) throws IOException {
+        Files.createDirectories(dir);
+        this.snapshotPath = dir.resolve("utxo-snapshot.dat");
+        this.journalPath = dir.resolve("utxo-journal.log");
+        this.snapshotInterval = snapshotInterval;
+        this.journal = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    //Fills an empty set from disk and registers the journal on it. Returns the recovered height, or -1.
+    //Throws if what is on disk cannot give a complete set; reset starts the journal over.
+    public synchronized int load(UTXOSet utxos) throws IOException {
+        if (Files.exists(snapshotPath)) {
+            try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (in.getInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a UTXO snapshot: " + snapshotPath);
+                }
+                height = in.getInt();
+                hash = BlockCodec.readId(in);
+                long count = in.getLong();
+                for (long i = 0; i < count; i++) {
+                    utxos.add(BlockCodec.readOutput(in));
+                }
+            }
+        }
+
+        //Every record holds the changes that led to the state at its block, so replay starts after the
+        //last record for the snapshot's block, if a crash left any before the journal was emptied,
+        //and covers every record after it whatever its height, as a reorg may go back down.
+        long end = 0;
+        if (journal.size() > 0) {
+            ByteBuffer in = journal.map(FileChannel.MapMode.READ_ONLY, 0, journal.size());
+            List<ByteBuffer> records = new ArrayList<>();
+            int first = 0;
+            while (in.remaining() >= 12) {
+                int start = in.position();
+                int length = in.getInt();
+                long checksum = in.getLong();
+                if (length < 0 || length > in.remaining()) break;
+
+                ByteBuffer record = in.slice();
+                record.limit(length);
+                CRC32 crc = new CRC32();
+                crc.update(record.duplicate());
+                if (crc.getValue() != checksum) break;
+
+                records.add(record);
+                ByteBuffer header = record.duplicate();
+                if (header.getInt() == height && BlockCodec.readId(header).equals(hash)) first = records.size();
+                in.position(start + 12 + length);
+                end = in.position();
+            }
+            if (height < 0 && !records.isEmpty() && records.get(0).getInt(0) != 0) {
+                throw new IOException("UTXO journal starts at height " + records.get(0).getInt(0) + " without a snapshot");
+            }
+            for (ByteBuffer record : records.subList(first, records.size())) {
+                height = record.getInt();
+                hash = BlockCodec.readId(record);
+                replay(record, utxos);
+            }
+        }
+        //A torn record at the tail is dropped so new records follow the last good one.
+        journal.truncate(end);
+        journal.position(end);
+
+        utxos.setListener(this);
+        return height;
+    }
+
+    @Override
+    public synchronized void added(TransactionOutput output) {
+        try {
+            pending.writeByte(ADD);
+            BlockCodec.writeOutput(pending, output);
+            pendingOps++;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void removed(TransactionOutput output) {
+        try {
+            pending.writeByte(REMOVE);
+            BlockCodec.writeId(pending, output.id);
+            pendingOps++;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Makes the changes made since the previous block durable under this block's height and hash.
+    public synchronized void commitBlock(int blockHeight, String blockHash, UTXOSet utxos) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(pendingBytes.size() + 64);
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(blockHeight);
+        BlockCodec.writeId(record, blockHash);
+        record.writeInt(pendingOps);
+        pending.flush();
+        pendingBytes.writeTo(record);
+        record.flush();
+        byte[] payload = recordBytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(payload.length).putLong(crc.getValue()).flip();
+        journal.write(new ByteBuffer[] { header, ByteBuffer.wrap(payload) });
+        journal.force(false);
+
+        pendingBytes.reset();
+        pendingOps = 0;
+        height = blockHeight;
+        hash = blockHash;
+
+        if (snapshotInterval > 0 && blockHeight % snapshotInterval == 0) {
+            snapshot(utxos);
+        }
+    }
+
+    //Writes the whole set next to the old snapshot, swaps it in, then empties the journal.
+    public synchronized void snapshot(UTXOSet utxos) throws IOException {
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(height);
+            BlockCodec.writeId(out, hash);
+            out.writeLong(utxos.size());
+            for (TransactionOutput output : utxos.values()) {
+                BlockCodec.writeOutput(out, output);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.truncate(0);
+        journal.position(0);
+    }
+
+    //Throws away what the journal holds and restarts it from utxos, the full set at the given block,
+    //for when it does not match the chain it is loaded next to.
+    public synchronized void reset(UTXOSet utxos, int blockHeight, String blockHash) throws IOException {
+        pendingBytes.reset();
+        pendingOps = 0;
+        height = blockHeight;
+        hash = blockHash;
+        snapshot(utxos);
+        utxos.setListener(this);
+    }
+
+    public synchronized int getHeight() {
+        return height;
+    }
+
+    public synchronized String getHash() {
+        return hash;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journal.close();
+    }
+
+    private static void replay(ByteBuffer record, UTXOSet utxos) {
+        int ops = record.getInt();
+        for (int i = 0; i < ops; i++) {
+            byte op = record.get();
+            if (op == ADD) {
+                utxos.add(BlockCodec.readOutput(record));
+            } else if (op == REMOVE) {
+                utxos.remove(BlockCodec.readId(record));
+            } else {
+                throw new IllegalStateException("Unknown journal operation: " + op);
+            }
+        }
+    }
+
+}
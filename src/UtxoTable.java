@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+//Open-addressing table of unspent outputs keyed by their 32-byte id.
+//Each slot is a fixed-width record in primitive arrays: four longs of id and the value.
+//Lookups by hex id parse the string in place, so they allocate nothing.
+public class UtxoTable {
+
+    private static final int ID_LONGS = 4;
+
+    private long[] ids;
+    private long[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public UtxoTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //Slot of the output, or -1 if it is not unspent.
+    //-1 for ids that aren't 64 hex digits, as no such id can be in the table.
+    public int find(String hexId) {
+        if (!isHexId(hexId)) return -1;
+        return find(hexLong(hexId, 0), hexLong(hexId, 16), hexLong(hexId, 32), hexLong(hexId, 48));
+    }
+
+    public int find(byte[] id, int offset) {
+        return find(bytesLong(id, offset), bytesLong(id, offset + 8), bytesLong(id, offset + 16), bytesLong(id, offset + 24));
+    }
+
+    public long value(int slot) {
+        return values[slot];
+    }
+
+    //Returns false if the id was already present; its value is replaced.
+    public boolean put(String hexId, long value) {
+        return put(hexLong(hexId, 0), hexLong(hexId, 16), hexLong(hexId, 32), hexLong(hexId, 48), value);
+    }
+
+    public boolean put(byte[] id, int offset, long value) {
+        return put(bytesLong(id, offset), bytesLong(id, offset + 8), bytesLong(id, offset + 16), bytesLong(id, offset + 24), value);
+    }
+
+    public boolean remove(String hexId) {
+        int slot = find(hexId);
+        if (slot < 0) return false;
+        removeSlot(slot);
+        return true;
+    }
+
+    public boolean remove(byte[] id, int offset) {
+        int slot = find(id, offset);
+        if (slot < 0) return false;
+        removeSlot(slot);
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private int find(long a, long b, long c, long d) {
+        for (int slot = home(a); used[slot]; slot = (slot + 1) & mask) {
+            int base = slot * ID_LONGS;
+            if (ids[base] == a && ids[base + 1] == b && ids[base + 2] == c && ids[base + 3] == d) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean put(long a, long b, long c, long d, long value) {
+        if ((size + 1) * 4L > (mask + 1) * 3L) {
+            grow();
+        }
+        int slot = home(a);
+        for (; used[slot]; slot = (slot + 1) & mask) {
+            int base = slot * ID_LONGS;
+            if (ids[base] == a && ids[base + 1] == b && ids[base + 2] == c && ids[base + 3] == d) {
+                values[slot] = value;
+                return false;
+            }
+        }
+        store(slot, a, b, c, d, value);
+        size++;
+        return true;
+    }
+
+    //Backward-shift deletion keeps probe chains intact without tombstones.
+    private void removeSlot(int slot) {
+        int hole = slot;
+        for (int next = (hole + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = home(ids[next * ID_LONGS]);
+            boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+            if (movable) {
+                int from = next * ID_LONGS;
+                store(hole, ids[from], ids[from + 1], ids[from + 2], ids[from + 3], values[next]);
+                hole = next;
+            }
+        }
+        used[hole] = false;
+        size--;
+    }
+
+    private void store(int slot, long a, long b, long c, long d, long value) {
+        int base = slot * ID_LONGS;
+        ids[base] = a;
+        ids[base + 1] = b;
+        ids[base + 2] = c;
+        ids[base + 3] = d;
+        values[slot] = value;
+        used[slot] = true;
+    }
+
+    private void grow() {
+        long[] oldIds = ids;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate((mask + 1) * 2);
+        for (int slot = 0; slot < oldUsed.length; slot++) {
+            if (!oldUsed[slot]) continue;
+            int base = slot * ID_LONGS;
+            int target = home(oldIds[base]);
+            while (used[target]) target = (target + 1) & mask;
+            store(target, oldIds[base], oldIds[base + 1], oldIds[base + 2], oldIds[base + 3], oldValues[slot]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity * ID_LONGS];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    //Ids are SHA-256 outputs, so their first bits are already well mixed.
+    private int home(long a) {
+        return (int) (a ^ (a >>> 32)) & mask;
+    }
+
+    private static boolean isHexId(String hex) {
+        if (hex == null || hex.length() != 64) return false;
+        for (int i = 0; i < 64; i++) {
+            if (Character.digit(hex.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static long hexLong(String hex, int from) {
+        if (hex.length() != 64) {
+            throw new IllegalArgumentException("Not a 32-byte hex id: " + hex);
+        }
+        long result = 0;
+        for (int i = from; i < from + 16; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) throw new IllegalArgumentException("Not a 32-byte hex id: " + hex);
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    private static long bytesLong(byte[] bytes, int from) {
+        long result = 0;
+        for (int i = from; i < from + 8; i++) {
+            result = (result << 8) | (bytes[i] & 0xff);
+        }
+        return result;
+    }
+
+}
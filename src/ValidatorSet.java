@@ -0,0 +1,101 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//Staking wallets in a Fenwick tree over their stake, so updates and stake-weighted picks are O(log n).
+//Wallets keep the slot they were first registered in; picks are seeded from the previous block hash,
+//so nodes that registered the same stakes in the same order choose the same validator.
+public class ValidatorSet {
+
+    private final Map<KeyRegistry.KeyId,Integer> slots = new HashMap<>();
+    private Wallet[] wallets = new Wallet[16];
+    private long[] stakes = new long[16];
+    //1-based Fenwick tree: tree[i] sums stakes of slots (i - lowbit(i), i].
+    private long[] tree = new long[17];
+    private int size;
+
+    //Brings the wallet's weight in line with wallet.stake.
+    public synchronized void update(Wallet wallet) {
+        KeyRegistry.KeyId key = KeyRegistry.of(wallet.publicKey);
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            if (wallet.stake == 0) return;
+            slot = size++;
+            if (slot == wallets.length) grow();
+            slots.put(key, slot);
+        }
+        wallets[slot] = wallet;
+        long delta = wallet.stake - stakes[slot];
+        if (delta == 0) return;
+        stakes[slot] = wallet.stake;
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    public Wallet select(String previousHash) {
+        return select(previousHash, 0);
+    }
+
+    //Stake-weighted pick for the given slot after previousHash; null when nothing is staked.
+    public synchronized Wallet select(String previousHash, long slot) {
+        long total = getTotalStake();
+        if (total <= 0) return null;
+
+        byte[] seed = StringUtil.sha256((previousHash + ":" + slot).getBytes(StandardCharsets.UTF_8));
+        long target = Long.remainderUnsigned(ByteBuffer.wrap(seed).getLong(), total);
+
+        int pos = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next < tree.length && tree[next] <= target) {
+                pos = next;
+                target -= tree[next];
+            }
+        }
+        return wallets[pos];
+    }
+
+    public synchronized long getTotalStake() {
+        long total = 0;
+        for (int i = size; i > 0; i -= i & -i) {
+            total += tree[i];
+        }
+        return total;
+    }
+
+    public synchronized long getStake(Wallet wallet) {
+        Integer slot = slots.get(KeyRegistry.of(wallet.publicKey));
+        return slot == null ? 0 : stakes[slot];
+    }
+
+    //Stake indexed by KeyRegistry id, for ids below size.
+    public synchronized long[] stakesById(int size) {
+        long[] byId = new long[size];
+        for (Map.Entry<KeyRegistry.KeyId,Integer> entry : slots.entrySet()) {
+            int id = entry.getKey().id;
+            if (id < size) byId[id] = stakes[entry.getValue()];
+        }
+        return byId;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    //Doubling changes which slots each node covers, so the tree is rebuilt in O(n).
+    private void grow() {
+        int capacity = wallets.length * 2;
+        wallets = Arrays.copyOf(wallets, capacity);
+        stakes = Arrays.copyOf(stakes, capacity);
+        tree = new long[capacity + 1];
+        for (int i = 1; i <= capacity; i++) {
+            tree[i] += stakes[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= capacity) tree[parent] += tree[i];
+        }
+    }
+
+}
@@ -2,18 +2,21 @@ import java.security.*;
 import java.security.spec.ECGenParameterSpec;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Wallet {
 
     public PrivateKey privateKey;
     public PublicKey publicKey;
-    public float stake;
-
-    public HashMap<String,TransactionOutput> UTXOs = new HashMap<String,TransactionOutput>();
+    public long stake;
 
     private Map<Delegate, Integer> votesGiven = new HashMap<>();
+    private ScheduledExecutorService consolidator;
 
     public Wallet() {
         generateKeyPair();
@@ -36,78 +39,129 @@ public class Wallet {
         }
     }
 
-    public float getBalance() {
-        float total = 0;
-        for (Map.Entry<String, TransactionOutput> item: Blockchain.UTXOs.entrySet()){
-            TransactionOutput UTXO = item.getValue();
-            if(UTXO.isMine(publicKey)) {
-                UTXOs.put(UTXO.id,UTXO);
-                total += UTXO.value ;
-            }
-        }
-        return total;
+    public long getBalance() {
+        return Blockchain.UTXOs.getBalance(publicKey);
     }
 
-    public Transaction sendFunds(PublicKey _recipient,float value ) {
+    public Transaction sendFunds(PublicKey _recipient,long value ) {
         if(getBalance() < value) {
-            System.out.println("#Not Enough funds to send transaction. Transaction Discarded.");
+            Log.info("#Not Enough funds to send transaction. Transaction Discarded.");
+            return null;
+        }
+        //Outputs a pending transaction already spends would only get this one rejected by the pool.
+        List<TransactionOutput> selected = CoinSelector.select(Blockchain.mempool.unclaimed(Blockchain.UTXOs.getOutputs(publicKey)),
+                Blockchain.UTXOs.getOutputCount(publicKey), value);
+        if (selected == null) {
+            Log.info("#Not Enough funds to send transaction. Transaction Discarded.");
             return null;
         }
         ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
-
-        float total = 0;
-        for (Map.Entry<String, TransactionOutput> item: UTXOs.entrySet()){
-            TransactionOutput UTXO = item.getValue();
-            total += UTXO.value;
+        for (TransactionOutput UTXO : selected) {
             inputs.add(new TransactionInput(UTXO.id));
-            if(total > value) break;
         }
 
         Transaction newTransaction = new Transaction(publicKey, _recipient , value, inputs);
         newTransaction.generateSignature(privateKey);
 
-        for(TransactionInput input: inputs){
-            UTXOs.remove(input.transactionOutputId);
+        return newTransaction;
+    }
+
+    //Pays up to maxInputs of the wallet's smallest outputs under dustThreshold back to itself as one output.
+    //Outputs already claimed in the mempool are left alone; null when there is nothing worth merging.
+    public Transaction consolidate(long dustThreshold, int maxInputs) {
+        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
+        long total = 0;
+        for (TransactionOutput UTXO : Blockchain.mempool.unclaimed(Blockchain.UTXOs.getOutputsSmallestFirst(publicKey))) {
+            if (UTXO.value >= dustThreshold || inputs.size() == maxInputs) break;
+            total += UTXO.value;
+            inputs.add(new TransactionInput(UTXO.id));
         }
+        if (inputs.size() < 2 || total < Blockchain.minimumTransaction) return null;
 
+        Transaction newTransaction = new Transaction(publicKey, publicKey, total, inputs);
+        newTransaction.generateSignature(privateKey);
         return newTransaction;
     }
 
+    //Every periodMillis, once the wallet holds more than minOutputs outputs, its dust is merged
+    //through Blockchain.mempool so later payments need fewer inputs.
+    public synchronized void startConsolidation(long dustThreshold, int maxInputs, int minOutputs, long periodMillis) {
+        stopConsolidation();
+        consolidator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wallet-consolidator");
+            t.setDaemon(true);
+            return t;
+        });
+        consolidator.scheduleWithFixedDelay(() -> {
+            if (Blockchain.UTXOs.getOutputCount(publicKey) <= minOutputs) return;
+            Transaction merge = consolidate(dustThreshold, maxInputs);
+            if (merge == null) return;
+            Blockchain.mempool.submit(merge).thenAccept(accepted -> {
+                if (accepted) Log.info(() -> "Consolidating " + merge.inputs.size() + " outputs: " + Amount.format(merge.value));
+            });
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopConsolidation() {
+        if (consolidator != null) {
+            consolidator.shutdownNow();
+            consolidator = null;
+        }
+    }
+
     //Methods for Proof of Stake (PoS)
-    public void stakeCoins(float amount) {
+    public void stakeCoins(long amount) {
         if (getBalance() >= amount) {
             stake += amount;
 
-            for (TransactionOutput utxo : new ArrayList<>(UTXOs.values())) {
+            for (TransactionOutput utxo : new ArrayList<>(Blockchain.UTXOs.getOutputs(publicKey))) {
                 if (amount <= 0) break;
-                float valueToLock = Math.min(utxo.value, amount);
+                long valueToLock = Math.min(utxo.value, amount);
                 Blockchain.UTXOs.remove(utxo.id);
                 amount -= valueToLock;
             }
-            System.out.println("Staked: " + stake + " | New balance: " + getBalance());
+            Blockchain.validators.update(this);
+            Log.info(() -> "Staked: " + Amount.format(stake) + " | New balance: " + Amount.format(getBalance()));
         } else {
-            System.out.println("Not enough balance to stake!");
+            Log.info("Not enough balance to stake!");
         }
     }
 
-    public void unstakeCoins(float amount) {
+    public void unstakeCoins(long amount) {
         if (stake >= amount) {
             stake -= amount;
 
             TransactionOutput newUtxo = new TransactionOutput(this.publicKey, amount, "unstake_" + UUID.randomUUID());
-            Blockchain.UTXOs.put(newUtxo.id, newUtxo);
-            System.out.println("Unstaked: " + amount + " | New stake: " + stake);
+            Blockchain.UTXOs.add(newUtxo);
+            Blockchain.validators.update(this);
+            Log.info(() -> "Unstaked: " + Amount.format(amount) + " | New stake: " + Amount.format(stake));
         }
     }
 
     //Methods for DPos
+    //Each vote costs one whole coin of stake.
     public void voteForDelegate(Delegate delegate, int votes) {
-        if (stake >= votes) {
-            delegate.votes += votes;
-            votesGiven.put(delegate, votesGiven.getOrDefault(delegate, 0) + votes);
-            stake -= votes;
-            System.out.println("Voted for delegate: " + votes + " votes");
+        long cost = Amount.of(votes);
+        if (votes > 0 && stake >= cost) {
+            //Votes are kept against the registered delegate, so a copy of it can't be withdrawn from twice.
+            Delegate voted = Blockchain.delegates.vote(delegate, votes);
+            votesGiven.put(voted, votesGiven.getOrDefault(voted, 0) + votes);
+            stake -= cost;
+            Blockchain.validators.update(this);
+            Log.info(() -> "Voted for delegate: " + votes + " votes");
         }
     }
 
+    //Takes back votes given to the delegate and returns their stake.
+    public void withdrawVotes(Delegate delegate, int votes) {
+        Delegate known = Blockchain.delegates.get(delegate);
+        int given = known == null ? 0 : votesGiven.getOrDefault(known, 0);
+        if (votes <= 0 || given < votes || !Blockchain.delegates.withdraw(known, votes)) return;
+        if (given == votes) votesGiven.remove(known);
+        else votesGiven.put(known, given - votes);
+        stake += Amount.of(votes);
+        Blockchain.validators.update(this);
+        Log.info(() -> "Withdrew from delegate: " + votes + " votes");
+    }
+
 }